@@ -0,0 +1,511 @@
+/*
+ * ArlingtonModel.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable in-memory representation of an Arlington TSV file set
+ * (typically "tsv/latest"). The TSV files are read exactly once so that all
+ * PDF version specific TSV and XML outputs can be generated from the same
+ * model without going back to disk.
+ * <p>
+ * Storage is columnar and dictionary-encoded: every distinct field value is
+ * held once in a shared dictionary and each TSV column is an int array of
+ * dictionary codes, with one row per TSV data row of every object. An
+ * object is a range of rows in those columns. Field values are therefore
+ * shared Strings and never allocated when accessed.
+ */
+public final class ArlingtonModel {
+
+    /**
+     * TSV column indices
+     */
+    public static final int KEY = 0;
+    public static final int TYPE = 1;
+    public static final int SINCE_VERSION = 2;
+    public static final int DEPRECATED_IN = 3;
+    public static final int REQUIRED = 4;
+    public static final int INDIRECT_REFERENCE = 5;
+    public static final int INHERITABLE = 6;
+    public static final int DEFAULT_VALUE = 7;
+    public static final int POSSIBLE_VALUES = 8;
+    public static final int SPECIAL_CASE = 9;
+    public static final int LINK = 10;
+    public static final int NOTE = 11;
+
+    /**
+     * A single Arlington TSV file (i.e. a PDF object) with all of its rows,
+     * as a range of rows in the dictionary-encoded columns of a model.
+     */
+    public static final class TSVObject {
+        private final String        name;
+        private final String        content_hash;
+        private final String        header;
+        private final String[]      dictionary;
+        private final int[][]       columns;
+        private final int           first_row;
+        private final int           row_count;
+
+        /**
+         * Per row, the PdfVersion bits of the PDF versions in which the key
+         * exists. Worked out on first use.
+         */
+        private volatile int[]      version_masks = null;
+
+        /**
+         * Creates an object over a range of rows of dictionary-encoded columns.
+         *
+         * @param name  the object name
+         * @param content_hash  SHA-256 of the original TSV file, or null if not known
+         * @param header  the TSV header row, or null
+         * @param dictionary  all distinct field values
+         * @param columns  per TSV column, the dictionary code of the field of
+         *                 each row (-1 for rows with fewer fields)
+         * @param first_row  index of the first row of this object in the columns
+         * @param row_count  number of rows of this object
+         */
+        TSVObject(String name, String content_hash, String header, String[] dictionary, int[][] columns, int first_row, int row_count) {
+            this.name = name;
+            this.content_hash = content_hash;
+            this.header = header;
+            this.dictionary = dictionary;
+            this.columns = columns;
+            this.first_row = first_row;
+            this.row_count = row_count;
+        }
+
+        /**
+         * @return the object name, which is the TSV file name without ".tsv"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return SHA-256 of the TSV file contents, as lowercase hex
+         */
+        public String getContentHash() {
+            return content_hash;
+        }
+
+        /**
+         * @return the TSV header row (first line), or null for an empty file
+         */
+        public String getHeader() {
+            return header;
+        }
+
+        /**
+         * @return the number of data rows (excluding the header row)
+         */
+        public int getRowCount() {
+            return row_count;
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the number of fields in the row (normally 12)
+         */
+        public int getFieldCount(int row) {
+            int n = 0;
+            while ((n < columns.length) && (columns[n][first_row + row] >= 0)) {
+                n++;
+            }
+            return n;
+        }
+
+        /**
+         * Returns the dictionary code of a field. Two fields of the same
+         * model have the same value if and only if they have the same code.
+         *
+         * @param row  zero-based data row index (excluding the header row)
+         * @param col  zero-based TSV column
+         * @return the dictionary code of the field, -1 if the row has no such field
+         */
+        public int getCode(int row, int col) {
+            return (col < columns.length) ? columns[col][first_row + row] : -1;
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @param col  zero-based TSV column
+         * @return the field
+         */
+        public String getField(int row, int col) {
+            return dictionary[columns[col][first_row + row]];
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Key" field
+         */
+        public String getKey(int row) {
+            return getField(row, KEY);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Type" field
+         */
+        public String getType(int row) {
+            return getField(row, TYPE);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "SinceVersion" field
+         */
+        public String getSinceVersion(int row) {
+            return getField(row, SINCE_VERSION);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "DeprecatedIn" field
+         */
+        public String getDeprecatedIn(int row) {
+            return getField(row, DEPRECATED_IN);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Required" field
+         */
+        public String getRequired(int row) {
+            return getField(row, REQUIRED);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "IndirectReference" field
+         */
+        public String getIndirectReference(int row) {
+            return getField(row, INDIRECT_REFERENCE);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Inheritable" field
+         */
+        public String getInheritable(int row) {
+            return getField(row, INHERITABLE);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "DefaultValue" field
+         */
+        public String getDefaultValue(int row) {
+            return getField(row, DEFAULT_VALUE);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "PossibleValues" field
+         */
+        public String getPossibleValues(int row) {
+            return getField(row, POSSIBLE_VALUES);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "SpecialCase" field
+         */
+        public String getSpecialCase(int row) {
+            return getField(row, SPECIAL_CASE);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Link" field
+         */
+        public String getLink(int row) {
+            return getField(row, LINK);
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the "Note" field
+         */
+        public String getNote(int row) {
+            return getField(row, NOTE);
+        }
+
+        /**
+         * Returns the fields of a data row, as if split on the TSV delimiter.
+         * Callers are free to modify the returned array.
+         *
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the fields of the row (normally 12)
+         */
+        public String[] getRow(int row) {
+            String[] fields = new String[getFieldCount(row)];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = getField(row, i);
+            }
+            return fields;
+        }
+
+        /**
+         * @param row  zero-based data row index (excluding the header row)
+         * @return the PDF versions in which the key exists, from the "SinceVersion" field
+         */
+        public VersionMask getVersionMask(int row) {
+            return VersionMask.of(getVersionMasks()[row]);
+        }
+
+        private int[] getVersionMasks() {
+            int[] masks = version_masks;
+            if (masks == null) {
+                masks = new int[row_count];
+                for (int r = 0; r < row_count; r++) {
+                    int field_count = getFieldCount(r);
+                    String since_version = (field_count > SINCE_VERSION) ? getSinceVersion(r) : null;
+                    VersionMask exists = (since_version != null) ? VersionMask.ofSinceVersion(since_version) : VersionMask.NONE;
+                    masks[r] = exists.getBits();
+                }
+                version_masks = masks;
+            }
+            return masks;
+        }
+    }
+
+    /**
+     * Builds dictionary-encoded columns one row at a time.
+     */
+    static final class ColumnBuilder {
+        private final StringDictionary dictionary;
+        private int[][] columns = new int[12][1024];
+        private int column_count = 0;
+        private int row_count = 0;
+
+        /**
+         * @param dictionary  the dictionary to encode fields with
+         */
+        ColumnBuilder(StringDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * @param fields  the fields of a row
+         */
+        void addRow(CharSequence... fields) {
+            if (row_count == columns[0].length) {
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], row_count * 2);
+                }
+            }
+            if (fields.length > columns.length) {
+                int old = columns.length;
+                columns = Arrays.copyOf(columns, fields.length);
+                for (int c = old; c < columns.length; c++) {
+                    columns[c] = new int[columns[0].length];
+                }
+            }
+            if (fields.length > column_count) {
+                // earlier rows do not have these fields
+                for (int c = column_count; c < fields.length; c++) {
+                    Arrays.fill(columns[c], 0, row_count, -1);
+                }
+                column_count = fields.length;
+            }
+            for (int c = 0; c < column_count; c++) {
+                columns[c][row_count] = (c < fields.length) ? dictionary.intern(fields[c]) : -1;
+            }
+            row_count++;
+        }
+
+        /**
+         * @return number of rows added so far
+         */
+        int getRowCount() {
+            return row_count;
+        }
+
+        /**
+         * @return the columns, trimmed to the number of rows
+         */
+        int[][] build() {
+            int[][] cols = new int[column_count][];
+            for (int c = 0; c < column_count; c++) {
+                cols[c] = Arrays.copyOf(columns[c], row_count);
+            }
+            return cols;
+        }
+    }
+
+    /**
+     * TSV delimiter - should be TAB
+     */
+    public static final char DELIMITER = '\t';
+
+    /**
+     * Folder from which the TSV file set was read.
+     */
+    private final String tsv_folder;
+
+    /**
+     * Alphabetically sorted list of all Arlington objects.
+     */
+    private final List<TSVObject> objects;
+
+    /**
+     * Object lookup by name
+     */
+    private final Map<String, TSVObject> objects_by_name;
+
+    /**
+     * Precomputed PDF version specific TSV file sets, by PDF version.
+     * Only available when loaded from a snapshot.
+     */
+    private final Map<PdfVersion, ArlingtonModel> version_models;
+
+    /**
+     * Number of distinct field values in the dictionary
+     */
+    private final int dictionary_size;
+
+    /**
+     * @param tsv_folder  folder from which the TSV file set was read
+     * @param objects  alphabetically sorted list of all objects
+     * @param dictionary_size  number of distinct field values
+     * @param version_models  precomputed PDF version specific TSV file sets
+     */
+    ArlingtonModel(String tsv_folder, List<TSVObject> objects, int dictionary_size, Map<PdfVersion, ArlingtonModel> version_models) {
+        this.tsv_folder = tsv_folder;
+        this.dictionary_size = dictionary_size;
+        this.version_models = version_models;
+        this.objects = Collections.unmodifiableList(objects);
+        this.objects_by_name = new HashMap<>();
+        for (TSVObject obj : objects) {
+            objects_by_name.put(obj.getName(), obj);
+        }
+    }
+
+    /**
+     * Reads every TSV file in a folder into a new model.
+     *
+     * @param tsv_folder  folder containing an Arlington TSV file set
+     * @return the loaded model
+     * @throws IOException if the folder or a TSV file cannot be read
+     */
+    public static ArlingtonModel load(String tsv_folder) throws IOException {
+        File[] list_of_files = new File(tsv_folder).listFiles();
+        if (list_of_files == null) {
+            throw new IOException("Cannot list TSV folder " + tsv_folder);
+        }
+        return load(tsv_folder, list_of_files, DELIMITER);
+    }
+
+    /**
+     * Reads a set of TSV files into a new model. Files are sorted
+     * alphabetically by name, and anything that is not a readable
+     * file is ignored.
+     *
+     * @param tsv_folder  folder containing the Arlington TSV file set
+     * @param list_of_files  the Arlington TSV files
+     * @param delimiter  should be '\t'
+     * @return the loaded model
+     * @throws IOException if a TSV file cannot be read
+     */
+    public static ArlingtonModel load(String tsv_folder, File[] list_of_files, char delimiter) throws IOException {
+        ArrayList<File> arr_file = new ArrayList<>();
+        for (File file : list_of_files) {
+            if (file.isFile() && file.canRead()) {
+                arr_file.add(file);
+            }
+        }
+        arr_file.sort((p1, p2) -> p1.compareTo(p2));
+
+        StringDictionary dictionary = new StringDictionary();
+        ColumnBuilder builder = new ColumnBuilder(dictionary);
+        String[] names = new String[arr_file.size()];
+        String[] hashes = new String[arr_file.size()];
+        String[] headers = new String[arr_file.size()];
+        int[] first_rows = new int[arr_file.size() + 1];
+        for (int i = 0; i < arr_file.size(); i++) {
+            File file = arr_file.get(i);
+            MappedTSVFile tsv = MappedTSVFile.open(file, delimiter);
+            names[i] = file.getName().substring(0, file.getName().length()-4); // no file extension ".tsv"
+            hashes[i] = tsv.getContentHash();
+            headers[i] = (tsv.getLineCount() > 0) ? tsv.getLine(0).toString() : null;
+            first_rows[i] = builder.getRowCount();
+            for (int line = 1; line < tsv.getLineCount(); line++) {
+                CharSequence[] fields = new CharSequence[tsv.getFieldCount(line)];
+                for (int f = 0; f < fields.length; f++) {
+                    fields[f] = tsv.getField(line, f);
+                }
+                builder.addRow(fields);
+            }
+        }
+        first_rows[arr_file.size()] = builder.getRowCount();
+
+        String[] values = dictionary.toArray();
+        int[][] columns = builder.build();
+        // every distinct field is parsed once, so predicates share AST nodes from the start
+        PredicateParser.parseAll(values);
+        ArrayList<TSVObject> objs = new ArrayList<>(arr_file.size());
+        for (int i = 0; i < arr_file.size(); i++) {
+            objs.add(new TSVObject(names[i], hashes[i], headers[i], values, columns, first_rows[i], first_rows[i+1] - first_rows[i]));
+        }
+        return new ArlingtonModel(tsv_folder, objs, values.length, Collections.emptyMap());
+    }
+
+    /**
+     * @return the folder from which this model was read
+     */
+    public String getFolder() {
+        return tsv_folder;
+    }
+
+    /**
+     * @return unmodifiable, alphabetically sorted list of all objects
+     */
+    public List<TSVObject> getObjects() {
+        return objects;
+    }
+
+    /**
+     * @param name  object name (TSV file name without ".tsv")
+     * @return the object or null if there is no such object
+     */
+    public TSVObject getObject(String name) {
+        return objects_by_name.get(name);
+    }
+
+    /**
+     * @return the number of distinct field values held by this model
+     */
+    public int getDictionarySize() {
+        return dictionary_size;
+    }
+
+    /**
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @return the already reduced TSV file set for the PDF version, or null
+     *         if it is not available and has to be created with TSVHandler
+     */
+    public ArlingtonModel getVersionModel(PdfVersion version) {
+        return version_models.get(version);
+    }
+}
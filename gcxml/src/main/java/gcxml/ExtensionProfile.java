@@ -0,0 +1,211 @@
+/*
+ * ExtensionProfile.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The set of extensions (fn:Extension(...) in the Arlington model) that
+ * outputs are specialised for. With the default profile (ALL) extension
+ * predicates are kept as they are. With any other profile, including one
+ * with no extensions ("none"), extension predicates are folded away:
+ * - SinceVersion fields become a plain PDF version, and keys that only
+ *   exist for extensions that are not enabled are dropped
+ * - fn:Extension(AAA,x) values (Types, PossibleValues, Links) become x, or
+ *   are removed if AAA is not enabled
+ * - fn:Extension(AAA) and fn:Extension(AAA,statement) conditions become
+ *   true/statement, or false if AAA is not enabled (see PartialEvaluator)
+ */
+public final class ExtensionProfile {
+
+    /**
+     * Not specialised: all extension predicates are kept as they are
+     */
+    public static final ExtensionProfile ALL = new ExtensionProfile(null);
+
+    /**
+     * Specialised for ISO core PDF only, without any extension
+     */
+    public static final ExtensionProfile NONE = new ExtensionProfile(Collections.emptySet());
+
+    /**
+     * Enabled extension names, sorted. null if not specialised.
+     */
+    private final Set<String> enabled;
+
+    /**
+     * Version masks of the SinceVersion fields seen so far
+     */
+    private final ConcurrentHashMap<String, VersionMask> since_masks = new ConcurrentHashMap<>();
+
+    private ExtensionProfile(Set<String> enabled) {
+        this.enabled = (enabled != null) ? Collections.unmodifiableSet(new TreeSet<>(enabled)) : null;
+    }
+
+    /**
+     * @param extensions  "none" or a comma separated list of extension names
+     *                    (e.g. "ADBE_Extn3,ISO_TS_32001")
+     * @return the profile
+     */
+    public static ExtensionProfile parse(String extensions) {
+        if (extensions.equals("none")) {
+            return NONE;
+        }
+        TreeSet<String> names = new TreeSet<>(Arrays.asList(extensions.split(",")));
+        names.remove("");
+        return new ExtensionProfile(names);
+    }
+
+    /**
+     * @return true unless this is the default profile (ALL)
+     */
+    public boolean isSpecialised() {
+        return enabled != null;
+    }
+
+    /**
+     * @param name  an extension name, e.g. "ADBE_Extn3"
+     * @return true if extension predicates for it hold
+     */
+    public boolean isEnabled(String name) {
+        return (enabled == null) || enabled.contains(name);
+    }
+
+    /**
+     * Works out the PDF versions in which a key exists from its Arlington
+     * "SinceVersion" field with this profile (see VersionMask.ofSinceVersion()
+     * for the default profile).
+     *
+     * @param sincever  the SinceVersion field from an Arlington TSV file
+     * @return the PDF versions
+     */
+    public VersionMask getVersionMask(String sincever) {
+        if (!isSpecialised()) {
+            return VersionMask.ofSinceVersion(sincever);
+        }
+        return since_masks.computeIfAbsent(sincever, s -> {
+            double since = sinceVersion(s);
+            return Double.isNaN(since) ? VersionMask.ofSinceVersion(s) : VersionMask.since(since);
+        });
+    }
+
+    /**
+     * Folds the extension predicates of an Arlington "SinceVersion" field.
+     * Only to be used for keys that exist in the PDF version (see getVersionMask()).
+     *
+     * @param sincever  the SinceVersion field from an Arlington TSV file
+     * @return the PDF version the key exists since, e.g. "1.7", or the field
+     *         unchanged if this profile is not specialised
+     */
+    public String reduceSinceVersion(String sincever) {
+        if (!isSpecialised()) {
+            return sincever;
+        }
+        double since = sinceVersion(sincever);
+        PdfVersion v = PdfVersion.fromValue(since);
+        return (v != null) ? v.toString() : sincever;
+    }
+
+    /**
+     * @return the lowest PDF version from which a key exists with this profile,
+     *         +infinity if it never exists, or NaN if the field is not understood
+     */
+    private double sinceVersion(String sincever) {
+        SinceVersion sv = SinceVersion.parse(sincever);
+        if (sv.isRecognised()) {
+            double since = Double.isNaN(sv.getCoreVersion()) ? Double.POSITIVE_INFINITY : sv.getCoreVersion();
+            if ((sv.getExtension() != null) && isEnabled(sv.getExtension())) {
+                double extn = Double.isNaN(sv.getExtensionVersion()) ? PdfVersion.values()[0].getValue() : sv.getExtensionVersion();
+                since = Math.min(since, extn);
+            }
+            return since;
+        }
+        if (!sincever.startsWith("fn:")) {
+            try {
+                return Double.parseDouble(sincever);
+            }
+            catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+        try {
+            return sinceVersion(PredicateParser.parse(sincever));
+        }
+        catch (IllegalArgumentException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * fn:Extension(AAA,x.y) is x.y if AAA is enabled (and fn:Extension(AAA) is
+     * the first PDF version), otherwise never. "||" is the earlier and "&amp;&amp;"
+     * the later of its operands.
+     */
+    private double sinceVersion(PredicateNode node) {
+        switch (node.getKind()) {
+            case VALUE:
+                return node.isReal() ? Double.parseDouble(node.getText()) : Double.NaN;
+            case GROUP:
+                return sinceVersion(node.getChild(0));
+            case OPERATOR: {
+                double left = sinceVersion(node.getChild(0));
+                double right = sinceVersion(node.getChild(1));
+                if (node.getName().equals("||")) {
+                    return Math.min(left, right);
+                }
+                return node.getName().equals("&&") ? Math.max(left, right) : Double.NaN;
+            }
+            case FUNCTION:
+                if (node.isFunction("fn:Eval", 1)) {
+                    return sinceVersion(node.getChild(0));
+                }
+                if (node.getName().equals("fn:Extension") && (node.getChildren().size() >= 1) && (node.getChildren().size() <= 2)) {
+                    if (!isEnabled(node.getChild(0).getText())) {
+                        return Double.POSITIVE_INFINITY;
+                    }
+                    return (node.getChildren().size() == 1) ? PdfVersion.values()[0].getValue() : sinceVersion(node.getChild(1));
+                }
+                return Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    /**
+     * @return "" for the default profile, otherwise "none" or the enabled
+     *         extension names separated by commas
+     */
+    @Override
+    public String toString() {
+        if (enabled == null) {
+            return "";
+        }
+        return enabled.isEmpty() ? "none" : String.join(",", enabled);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof ExtensionProfile) && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * FieldScanner.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+/**
+ * A cursor over a complex Arlington field such as
+ * "[fn:SinceVersion(1.5,A),B];[]" that returns the positions of its parts
+ * rather than copies of them:
+ * - nextGroup(): the next SEMI-COLON separated element ("[...]" or a Type),
+ *   ignoring SEMI-COLONs inside brackets
+ * - nextItem(): the next COMMA separated item inside a "[...]" element, where
+ *   a predicate ("fn:...") extends to its matching close bracket so that its
+ *   own COMMAs are not separators
+ * The part found is field[getStart(), getEnd()). A scanner can be reused for
+ * another range with reset(). Not thread-safe.
+ */
+public final class FieldScanner {
+
+    private CharSequence field;
+    private int pos;
+    private int limit;
+    private int start;
+    private int end;
+    private boolean done;
+
+    /**
+     * @param field  the Arlington field to scan
+     */
+    public FieldScanner(CharSequence field) {
+        reset(field, 0, field.length());
+    }
+
+    /**
+     * Scans a different range, e.g. the contents of a "[...]" element.
+     *
+     * @param field  the Arlington field to scan
+     * @param from   index of the first character to scan
+     * @param to     index after the last character to scan
+     * @return this scanner
+     */
+    public FieldScanner reset(CharSequence field, int from, int to) {
+        this.field = field;
+        this.pos = from;
+        this.limit = to;
+        this.start = from;
+        this.end = from;
+        this.done = false;
+        return this;
+    }
+
+    /**
+     * Moves to the next SEMI-COLON separated element. Like String.split(";")
+     * an empty field has a single empty element.
+     *
+     * @return false if there are no more elements
+     */
+    public boolean nextGroup() {
+        if (done) {
+            return false;
+        }
+        start = pos;
+        int depth = 0;
+        while (pos < limit) {
+            char ch = field.charAt(pos);
+            if ((ch == '(') || (ch == '[')) {
+                depth++;
+            }
+            else if ((ch == ')') || (ch == ']')) {
+                depth--;
+            }
+            else if ((ch == ';') && (depth == 0)) {
+                end = pos++;
+                return true;
+            }
+            pos++;
+        }
+        end = pos;
+        done = true;
+        return true;
+    }
+
+    /**
+     * Moves to the next COMMA separated item. A predicate item ("fn:...")
+     * ends at its matching close bracket.
+     *
+     * @return false if there are no more items
+     */
+    public boolean nextItem() {
+        if (pos >= limit) {
+            return false;
+        }
+        start = pos;
+        if (startsWith("fn:")) {
+            int close = indexOfOuterCloseBracket(field, pos, limit);
+            assert close != -1 : "No ')' for predicate!";
+            end = (close != -1) ? close + 1 : limit;
+        }
+        else {
+            end = pos;
+            while ((end < limit) && (field.charAt(end) != ',')) {
+                end++;
+            }
+        }
+        pos = end;
+        if ((pos < limit) && (field.charAt(pos) == ',')) {
+            pos++;
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the first character of the current element or item
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return index after the last character of the current element or item
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return true if the current element or item is a predicate ("fn:...")
+     */
+    public boolean isPredicate() {
+        return (end - start >= 3) && startsWith(start, "fn:");
+    }
+
+    /**
+     * @return true if the current element is "[...]"
+     */
+    public boolean isBracketed() {
+        return (end - start >= 2) && (field.charAt(start) == '[') && (field.charAt(end - 1) == ']');
+    }
+
+    /**
+     * @param s  a string
+     * @return true if the current element or item is the same as s
+     */
+    public boolean contentEquals(String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        return startsWith(start, s);
+    }
+
+    /**
+     * @return a copy of the current element or item
+     */
+    public String token() {
+        return field.subSequence(start, end).toString();
+    }
+
+    /**
+     * Counts the SEMI-COLON separated elements of a field (see nextGroup()).
+     *
+     * @param field  an Arlington field
+     * @return the number of elements (at least 1)
+     */
+    public static int countGroups(CharSequence field) {
+        FieldScanner s = new FieldScanner(field);
+        int count = 0;
+        while (s.nextGroup()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Finds the matching closing bracket ")" for the first open bracket "("
+     * in a range of a string.
+     *
+     * @param s     the string
+     * @param from  index to start from
+     * @param to    index to stop at
+     * @return -1 if no matching bracket pair or index of matching ")" in the string
+     */
+    public static int indexOfOuterCloseBracket(CharSequence s, int from, int to) {
+        int nested = 0;
+        for (int i = from; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch == '(') {
+                nested++;
+            }
+            else if (ch == ')') {
+                if (nested == 1) {
+                    return i;
+                }
+                nested--;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(String prefix) {
+        return (limit - pos >= prefix.length()) && startsWith(pos, prefix);
+    }
+
+    private boolean startsWith(int at, String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (field.charAt(at + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
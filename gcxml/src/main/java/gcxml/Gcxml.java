@@ -15,6 +15,24 @@
 package gcxml;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Command line utility demonstrating Java processing of the Arlington TSV model.
@@ -26,15 +44,56 @@ public class Gcxml {
      */
     public static final String Gcxml_version = "0.6.0";
 
+    /**
+     * Version of the TSV and XML output generated from a given input. Must be
+     * increased by every change to how fields are reduced for a PDF version
+     * (or for a set of extensions), as it invalidates existing manifests.
+     */
+    public static final int Output_version = 5;
+
+    /**
+     * Set if any XML file could not be created or is not valid against the
+     * XML schema, so that gcxml exits with a non-zero exit code
+     */
+    private static final AtomicBoolean xml_failed = new AtomicBoolean(false);
+
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        final char delimiter = '\t';
+        // "-threads <n>", "-extensions <list>", "-incremental" and "-gzip" may be given anywhere on the command line
+        int thread_count = 1;
+        ArrayList<String> arg_list = new ArrayList<>(Arrays.asList(args));
+        int t = arg_list.indexOf("-threads");
+        if (t >= 0) {
+            if ((t + 1 < arg_list.size()) && arg_list.get(t + 1).matches("[1-9][0-9]*")) {
+                thread_count = Integer.parseInt(arg_list.get(t + 1));
+                arg_list.remove(t + 1);
+            }
+            else {
+                System.out.println("Ignoring -threads as it needs a positive number of threads.");
+            }
+            arg_list.remove(t);
+        }
+        ExtensionProfile extensions = ExtensionProfile.ALL;
+        int e = arg_list.indexOf("-extensions");
+        if (e >= 0) {
+            if ((e + 1 < arg_list.size()) && !arg_list.get(e + 1).startsWith("-")) {
+                extensions = ExtensionProfile.parse(arg_list.get(e + 1));
+                arg_list.remove(e + 1);
+            }
+            else {
+                System.out.println("Ignoring -extensions as it needs a list of extensions or \"none\".");
+            }
+            arg_list.remove(e);
+        }
+        final ExtensionProfile profile = extensions;
+        boolean incremental = arg_list.remove("-incremental");
+        boolean gzip = arg_list.remove("-gzip");
+        args = arg_list.toArray(new String[0]);
 
         String inputFolder = System.getProperty("user.dir") + "/tsv/latest/";
-        File folder = new File(inputFolder);
-        File[] listOfFiles = folder.listFiles();
+        Path manifest_path = Paths.get(System.getProperty("user.dir"), Manifest.MANIFEST_FILE);
 
         if (args.length > 0) {
             String argument = args[0];
@@ -42,34 +101,40 @@ public class Gcxml {
             try {
                 switch (argument) {
                     // run -xml and -tsv at once for all pdf versions
-                    case "-all":
-                        for (int i = 0; i < TSVHandler.pdf_version.length; i++ ) {
-                            XMLCreator xmlcreator = new XMLCreator(listOfFiles, delimiter);
-                            xmlcreator.createXML(String.valueOf(TSVHandler.pdf_version[i]));
-                        }
-                        TSVHandler tsv = new TSVHandler();
-                        tsv.createAllVersionsTSV();
+                    case "-all": {
+                        // read the latest TSV file set just once for all versions
+                        ArlingtonModel model = loadModel(inputFolder);
+                        Manifest previous = incremental ? Manifest.load(manifest_path) : null;
+                        Manifest manifest = incremental ? Manifest.of(model, profile) : null;
+                        forAllVersions(thread_count, version -> {
+                            createXML(model, version, 1, profile, gzip, manifest, previous);
+                            createTSV(model, version, 1, profile, manifest, previous);
+                        });
+                        saveManifest(manifest, previous, manifest_path);
                         break;
+                    }
 
                     // create grammar in XML format for a specific PDF version from the latest TSV files
                     case "-xml":
                             if ((args.length > 1) && (!args[1].isEmpty())) {
                                 String version = args[1];
-                                if (version.equals("1.0") || version.equals("1.1") || version.equals("1.2")
-                                    || version.equals("1.3") || version.equals("1.4") || version.equals("1.5")
-                                    || version.equals("1.6") || version.equals("1.7") || version.equals("2.0")) {
-                                    XMLCreator xmlcreator = new XMLCreator(listOfFiles, delimiter);
-                                    xmlcreator.createXML(version);
+                                if (PdfVersion.fromString(version) != null) {
+                                    ArlingtonModel model = loadModel(inputFolder);
+                                    Manifest previous = incremental ? Manifest.load(manifest_path) : null;
+                                    Manifest manifest = incremental ? Manifest.of(model, profile) : null;
+                                    createXML(model, version, thread_count, profile, gzip, manifest, previous);
+                                    saveManifest(manifest, previous, manifest_path);
                                 }
                                 else {
                                     System.out.println("There is no such PDF version. Correct values are: 1.0, 1.1, 1.2, 1.3, 1.4, 1.5, 1.6, 1.7, 2.0");
                                 }
                             }
                             else {
-                                for (int i = 0; i < TSVHandler.pdf_version.length; i++ ) {
-                                    XMLCreator xmlcreator = new XMLCreator(listOfFiles, delimiter);
-                                    xmlcreator.createXML(String.valueOf(TSVHandler.pdf_version[i]));
-                                }
+                                ArlingtonModel model = loadModel(inputFolder);
+                                Manifest previous = incremental ? Manifest.load(manifest_path) : null;
+                                Manifest manifest = incremental ? Manifest.of(model, profile) : null;
+                                forAllVersions(thread_count, version -> createXML(model, version, 1, profile, gzip, manifest, previous));
+                                saveManifest(manifest, previous, manifest_path);
                             }
                         break;
 
@@ -77,9 +142,7 @@ public class Gcxml {
                     case "-sin":
                         if ((args.length > 1) && !args[1].isEmpty()) {
                             String version = args[1];
-                            if (version.equals("1.0") || version.equals("1.1") || version.equals("1.2")
-                                    || version.equals("1.3") || version.equals("1.4") || version.equals("1.5")
-                                    || version.equals("1.6") || version.equals("1.7") || version.equals("2.0")) {
+                            if (PdfVersion.fromString(version) != null) {
                                 XMLQuery query = new XMLQuery();
                                 query.SinceVersion(version);
                             }
@@ -101,9 +164,7 @@ public class Gcxml {
                     case "-dep":
                         if ((args.length > 1) && !args[1].isEmpty()) {
                             String version = args[1];
-                            if (version.equals("1.0") || version.equals("1.1") || version.equals("1.2")
-                                    || version.equals("1.3") || version.equals("1.4") || version.equals("1.5")
-                                    || version.equals("1.6") || version.equals("1.7") || version.equals("2.0")) {
+                            if (PdfVersion.fromString(version) != null) {
                                 XMLQuery query = new XMLQuery();
                                 query.DeprecatedIn(version);
                             }
@@ -141,27 +202,57 @@ public class Gcxml {
                         }
                         break;
 
+                    case "-keys":
+                        if ((args.length > 2) && (PdfVersion.fromString(args[2]) != null)) {
+                            query = new XMLQuery();
+                            query.ObjectKeys(args[1], args[2]);
+                        }
+                        else {
+                            System.out.println("Expected an object name and a PDF version, eg.: -keys Catalog 1.4");
+                        }
+                        break;
+
                     case "-version":
                         break;
 
                     case "-tsv":
                         if ((args.length > 1) && (!args[1].isEmpty())) {
                             String version = args[1];
-                            if (version.equals("1.0") || version.equals("1.1") || version.equals("1.2")
-                                || version.equals("1.3") || version.equals("1.4") || version.equals("1.5")
-                                || version.equals("1.6") || version.equals("1.7") || version.equals("2.0")) {
-                                double ver = Double.parseDouble(version);
-                        TSVHandler tsv2 = new TSVHandler();
-                                tsv2.deleteTSVset(ver);
-                                tsv2.createTSVset(ver);
+                            if (PdfVersion.fromString(version) != null) {
+                                ArlingtonModel model = loadModel(inputFolder);
+                                Manifest previous = incremental ? Manifest.load(manifest_path) : null;
+                                Manifest manifest = incremental ? Manifest.of(model, profile) : null;
+                                createTSV(model, version, thread_count, profile, manifest, previous);
+                                saveManifest(manifest, previous, manifest_path);
                             }
                             else {
                                 System.out.println("There is no such PDF version. Correct values are: 1.0, 1.1, 1.2, 1.3, 1.4, 1.5, 1.6, 1.7, 2.0");
                             }
                         }
                         else {
-                            TSVHandler tsv2 = new TSVHandler();
-                        tsv2.createAllVersionsTSV();
+                            ArlingtonModel model = loadModel(inputFolder);
+                            Manifest previous = incremental ? Manifest.load(manifest_path) : null;
+                            Manifest manifest = incremental ? Manifest.of(model, profile) : null;
+                            forAllVersions(thread_count, version -> createTSV(model, version, 1, profile, manifest, previous));
+                            saveManifest(manifest, previous, manifest_path);
+                        }
+                        break;
+
+                    // compile the latest TSV file set into a snapshot for fast loading
+                    case "-compile":
+                        ModelSnapshot.compile(ArlingtonModel.load(inputFolder),
+                                Paths.get(System.getProperty("user.dir"), ModelSnapshot.SNAPSHOT_FILE));
+                        break;
+
+                    // keep all TSV and XML outputs up-to-date as tsv/latest is edited
+                    case "-watch":
+                        watch(inputFolder, manifest_path, thread_count, profile, gzip);
+                        break;
+
+                    // check all predicates of the latest TSV file set
+                    case "-validate":
+                        if (new PredicateValidator(thread_count).validate(loadModel(inputFolder)) > 0) {
+                            System.exit(1);
                         }
                         break;
 
@@ -175,6 +266,10 @@ public class Gcxml {
                         showHelp();
                         break;
                 } // switch
+                TSVHandler.reportReductionCaches();
+                if (xml_failed.get()) {
+                    System.exit(1);
+                }
             }
             catch (Exception exp) {
                 System.err.println(exp.toString());
@@ -186,6 +281,221 @@ public class Gcxml {
         }
     }
 
+    /**
+     * Loads the latest TSV file set from the snapshot created by -compile
+     * if there is one that is still up-to-date, otherwise from the TSV files.
+     *
+     * @param inputFolder  folder with the latest TSV file set
+     * @return the latest TSV file set
+     * @throws IOException if neither could be read
+     */
+    private static ArlingtonModel loadModel(String inputFolder) throws IOException {
+        Path snapshot = Paths.get(System.getProperty("user.dir"), ModelSnapshot.SNAPSHOT_FILE);
+        if (Files.isRegularFile(snapshot)) {
+            ArlingtonModel model = ModelSnapshot.load(snapshot, inputFolder);
+            if (model != null) {
+                System.out.println("Using snapshot " + snapshot);
+                return model;
+            }
+        }
+        return ArlingtonModel.load(inputFolder);
+    }
+
+    /**
+     * Creates the XML file for a PDF version. If a manifest is given then
+     * nothing is done if none of the latest TSV files have changed since the
+     * XML file was last created. An XML file that is not valid against the
+     * XML schema is not recorded in the manifest and makes gcxml exit with
+     * exit code 1.
+     *
+     * @param model  the latest Arlington TSV file set
+     * @param version  the PDF version (as a string)
+     * @param thread_count  number of threads to create OBJECT elements with
+     * @param profile  the extensions being targeted
+     * @param gzip  true to write a gzip compressed XML file
+     * @param manifest  manifest of the current TSV file set, or null to always create
+     * @param previous  manifest from the previous run, or null
+     */
+    private static void createXML(ArlingtonModel model, String version, int thread_count, ExtensionProfile profile, boolean gzip, Manifest manifest, Manifest previous) throws Exception {
+        String target = "xml/pdf_grammar" + version + (gzip ? ".xml.gz" : ".xml");
+        if (manifest != null) {
+            Set<String> changed = manifest.changedSince(target, previous);
+            if ((changed != null) && changed.isEmpty() && new File(System.getProperty("user.dir"), target).isFile()) {
+                System.out.println("XML for PDF " + version + " is up-to-date");
+                manifest.setTargetBuilt(target);
+                return;
+            }
+        }
+        XMLCreator xmlcreator = new XMLCreator(model, thread_count, profile);
+        xmlcreator.setGzip(gzip);
+        if (!xmlcreator.createXML(version)) {
+            xml_failed.set(true);
+        }
+        else if (manifest != null) {
+            manifest.setTargetBuilt(target);
+        }
+    }
+
+    /**
+     * Creates the TSV file set for a PDF version. If a manifest is given then
+     * only the TSV files of objects whose latest TSV file has changed since
+     * the TSV file set was last created are recreated.
+     *
+     * @param model  the latest Arlington TSV file set
+     * @param version  the PDF version (as a string)
+     * @param thread_count  number of threads to process TSV files with
+     * @param profile  the extensions being targeted
+     * @param manifest  manifest of the current TSV file set, or null to always create
+     * @param previous  manifest from the previous run, or null
+     */
+    private static void createTSV(ArlingtonModel model, String version, int thread_count, ExtensionProfile profile, Manifest manifest, Manifest previous) {
+        String target = "tsv/" + version;
+        PdfVersion ver = PdfVersion.fromString(version);
+        TSVHandler tsv = new TSVHandler(model, thread_count, profile);
+        Set<String> changed = (manifest != null) ? manifest.changedSince(target, previous) : null;
+        File[] existing = new File(System.getProperty("user.dir"), target).listFiles();
+        if ((changed == null) || (existing == null) || (existing.length == 0)) {
+            tsv.createTSVset(ver);
+        }
+        else if (changed.isEmpty()) {
+            System.out.println("TSV file set for PDF " + version + " is up-to-date");
+        }
+        else {
+            System.out.println("Updating " + changed.size() + " TSV file(s) for PDF " + version);
+            tsv.updateTSVset(ver, changed);
+        }
+        if (manifest != null) {
+            manifest.setTargetBuilt(target);
+        }
+    }
+
+    /**
+     * Saves the manifest of this run, remembering targets from previous runs
+     * that were not recreated this time.
+     *
+     * @param manifest  manifest of the current TSV file set, or null if not incremental
+     * @param previous  manifest from the previous run
+     * @param path  the manifest file
+     */
+    private static void saveManifest(Manifest manifest, Manifest previous, Path path) throws IOException {
+        if (manifest != null) {
+            manifest.keepTargets(previous);
+            manifest.save(path);
+        }
+    }
+
+    /**
+     * Brings all TSV and XML outputs up-to-date with the latest TSV file set
+     * and then keeps them up-to-date by watching the latest TSV folder until
+     * the process is terminated. Only the TSV files of changed objects are
+     * recreated for each PDF version, and XML files whose content does not
+     * change are not rewritten.
+     *
+     * @param inputFolder  folder with the latest TSV file set
+     * @param manifest_path  the manifest file, updated after every rebuild
+     * @param thread_count  number of concurrent PDF versions
+     * @param profile  the extensions being targeted
+     * @param gzip  true to write gzip compressed XML files
+     *
+     * @throws Exception if the folder cannot be watched
+     */
+    private static void watch(String inputFolder, Path manifest_path, int thread_count, ExtensionProfile profile, boolean gzip) throws Exception {
+        Path folder = Paths.get(inputFolder);
+        try (WatchService watcher = folder.getFileSystem().newWatchService()) {
+            folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+            Manifest last_built = Manifest.load(manifest_path);
+            while (true) {
+                long start = System.currentTimeMillis();
+                try {
+                    ArlingtonModel model = loadModel(inputFolder);
+                    Manifest manifest = Manifest.of(model, profile);
+                    Manifest previous = last_built;
+                    forAllVersions(thread_count, version -> {
+                        createXML(model, version, 1, profile, gzip, manifest, previous);
+                        createTSV(model, version, 1, profile, manifest, previous);
+                    });
+                    saveManifest(manifest, previous, manifest_path);
+                    last_built = manifest;
+                    System.out.println("Outputs updated in " + (System.currentTimeMillis() - start) + " ms");
+                    TSVHandler.reportReductionCaches();
+                }
+                catch (Exception | InternalError ex) {
+                    // typically a TSV file that was still being written - retry on its next change
+                    System.err.println("Error: " + ex.toString());
+                }
+                System.out.println("Watching " + folder + " for changes (Ctrl-C to stop)...");
+
+                // wait for a TSV file to change, then for the burst of events from a save to settle
+                boolean changed = false;
+                while (!changed) {
+                    WatchKey key = watcher.take();
+                    do {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            changed |= (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                                    || event.context().toString().endsWith(".tsv");
+                        }
+                        if (!key.reset()) {
+                            throw new IOException("Cannot watch " + folder + " any longer");
+                        }
+                    } while ((key = watcher.poll(100, TimeUnit.MILLISECONDS)) != null);
+                }
+
+                // predicates of the previous TSV file set would otherwise be kept for the life of the process
+                PartialEvaluator.clearCaches();
+                PredicateParser.clearCaches();
+                SinceVersion.clearCache();
+            }
+        }
+    }
+
+    /**
+     * Work to be done for a single PDF version
+     */
+    private interface VersionTask {
+        void run(String version) throws Exception;
+    }
+
+    /**
+     * Runs a task for each supported PDF version. With more than 1 thread
+     * each version is an independent concurrent task (each task must
+     * create its own XMLCreator and TSVHandler objects) and this method
+     * returns once all versions are done.
+     *
+     * @param thread_count  number of concurrent tasks (1 = serial)
+     * @param task  work to do for a PDF version
+     *
+     * @throws Exception the first exception thrown by any task
+     */
+    private static void forAllVersions(int thread_count, VersionTask task) throws Exception {
+        if (thread_count == 1) {
+            for (double v : TSVHandler.pdf_version) {
+                task.run(String.valueOf(v));
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(thread_count, TSVHandler.pdf_version.length));
+        try {
+            ArrayList<Callable<Void>> tasks = new ArrayList<>();
+            for (double v : TSVHandler.pdf_version) {
+                tasks.add(() -> { task.run(String.valueOf(v)); return null; });
+            }
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try {
+                    f.get();
+                }
+                catch (ExecutionException ex) {
+                    throw (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex;
+                }
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * Command line help
      */
@@ -199,14 +509,23 @@ public class Gcxml {
         System.out.println("\t-all\t\t\tconvert latest TSV to both XML and TSV for all PDF versions");
         System.out.println("\t-xml [ <version> ]\tconvert latest TSV to XML for specified PDF version, or all if no version is specified");
         System.out.println("\t-tsv [ <version> ]\tconvert latest TSV to TSV for specified PDF version, or all if no version specified");
+        System.out.println("\t-compile\t\tcompile latest TSV and the TSV of all PDF versions into a snapshot used by -all, -xml and -tsv until latest TSV changes");
+        System.out.println("\t-watch\t\t\tconvert latest TSV to both XML and TSV for all PDF versions, then keep them up-to-date as latest TSV files are edited");
+        System.out.println("\t-validate\t\tcheck all predicates of latest TSV (arguments and referenced keys), exit status 1 if there are problems");
         // grammar queries using the xml files
         System.out.println("QUERIES:");
         System.out.println("\t-sin <version | -all>\treturn all keys introduced in (\"since\") a specified PDF version (or all)");
         System.out.println("\t-dep <version | -all>\treturn all keys deprecated in a specified PDF version (or all)");
         System.out.println("\t-kc\t\t\treturn every key name and their occurrence counts for each version of PDF");
         System.out.println("\t-po key<,key1,...>\treturn list of potential objects based on a set of given keys for each version of PDF");
+        System.out.println("\t-keys <object> <version>\treturn the keys of an object in a PDF version, reading only that object if the XML file has an index");
         System.out.println("\t-sc\t\t\tlist special cases for every PDF version");
         System.out.println("\t-so\t\t\treturn objects that are not defined to have key Type, or where the Type key is specified as optional");
+        System.out.println("OPTIONS:");
+        System.out.println("\t-extensions <list>\tspecialise XML and TSV outputs for a comma separated list of extensions (e.g. ADBE_Extn3,ISO_TS_32001) or \"none\", folding away all extension predicates");
+        System.out.println("\t-gzip\t\t\twrite XML files gzip compressed (pdf_grammar<version>.xml.gz). Queries read compressed and uncompressed XML files");
+        System.out.println("\t-incremental\t\tonly recreate outputs that depend on TSV files changed since the last -incremental run");
+        System.out.println("\t-threads <n>\t\tuse n concurrent threads: across PDF versions when converting all versions, otherwise across TSV files (default: 1)");
         System.out.println("Note: output might be too long to display in terminal, so it is recommended to redirect the output to file (eg <command> > report.txt)");
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * GrammarValidator.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Validates an XML grammar file against the Arlington XML schema
+ * (xml/schema/arlington-pdf.xsd) while XMLCreator writes it, one OBJECT
+ * element at a time, rather than reading the file again afterwards (e.g.
+ * with xmllint). The schema is compiled once and shared by all validators,
+ * but each validator must only be used by one thread at a time.
+ */
+public final class GrammarValidator extends DefaultHandler {
+
+    /**
+     * The Arlington XML schema, relative to the main Arlington folder
+     */
+    public static final String SCHEMA_FILE = "xml/schema/arlington-pdf.xsd";
+
+    /**
+     * The compiled schema (null if there is none) and whether it was loaded
+     */
+    private static Schema schema = null;
+    private static boolean schema_loaded = false;
+
+    private final String file_name;
+    private final ValidatorHandler validator;
+    private final XMLReader reader;
+
+    /**
+     * The OBJECT element being validated, for error messages
+     */
+    private String object_id = null;
+
+    private int error_count = 0;
+
+    private GrammarValidator(Schema schema, String file_name) throws ParserConfigurationException, SAXException {
+        this.file_name = file_name;
+        this.validator = schema.newValidatorHandler();
+        this.validator.setErrorHandler(this);
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        this.reader = factory.newSAXParser().getXMLReader();
+        this.reader.setContentHandler(this);
+        this.reader.setErrorHandler(this);
+    }
+
+    /**
+     * @param file_name  name of the XML file to be validated, for error messages
+     * @return a new validator, or null if there is no XML schema
+     * @throws SAXException if the XML schema is not valid
+     * @throws ParserConfigurationException if no XML parser is available
+     */
+    public static GrammarValidator forFile(String file_name) throws SAXException, ParserConfigurationException {
+        Schema s = getSchema();
+        return (s != null) ? new GrammarValidator(s, file_name) : null;
+    }
+
+    /**
+     * Compiles the XML schema on first use.
+     *
+     * @return the XML schema, or null if there is no schema file
+     */
+    private static synchronized Schema getSchema() throws SAXException {
+        if (!schema_loaded) {
+            File xsd = new File(System.getProperty("user.dir"), SCHEMA_FILE);
+            if (xsd.isFile()) {
+                schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsd);
+            }
+            else {
+                System.out.println("Not validating XML as there is no XML schema " + xsd);
+            }
+            schema_loaded = true;
+        }
+        return schema;
+    }
+
+    /**
+     * Starts the document with its root element.
+     *
+     * @param name  name of the root element
+     * @param attributes  attribute names and values of the root element
+     */
+    public void startRoot(String name, String... attributes) throws SAXException {
+        AttributesImpl atts = new AttributesImpl();
+        for (int i = 0; i + 1 < attributes.length; i += 2) {
+            atts.addAttribute("", attributes[i], attributes[i], "CDATA", attributes[i + 1]);
+        }
+        validator.startDocument();
+        validator.startElement("", name, name, atts);
+    }
+
+    /**
+     * Validates the next element in the root element.
+     *
+     * @param id  id of the OBJECT element, for error messages
+     * @param xml_text  the OBJECT element as written to the XML file
+     */
+    public void validateObject(String id, String xml_text) throws IOException {
+        object_id = id;
+        try {
+            reader.parse(new InputSource(new StringReader(xml_text)));
+        }
+        catch (SAXException ex) {
+            // already reported by fatalError()
+        }
+        object_id = null;
+    }
+
+    /**
+     * Ends the root element and the document.
+     *
+     * @param name  name of the root element
+     * @return the number of validation errors in the whole document
+     */
+    public int endRoot(String name) throws SAXException {
+        validator.endElement("", name, name);
+        validator.endDocument();
+        return error_count;
+    }
+
+    // Events of an OBJECT element (but not of its document) go to the schema validator
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        validator.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        validator.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        validator.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        validator.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        validator.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        validator.endPrefixMapping(prefix);
+    }
+
+    // Errors from the schema validator or the XML parser
+
+    @Override
+    public void error(SAXParseException ex) {
+        report(ex);
+    }
+
+    @Override
+    public void fatalError(SAXParseException ex) throws SAXException {
+        report(ex);
+        throw ex;
+    }
+
+    private void report(SAXParseException ex) {
+        error_count++;
+        System.err.println("Error: " + file_name + ((object_id != null) ? " OBJECT " + object_id : "") + ": " + ex.getMessage());
+    }
+}
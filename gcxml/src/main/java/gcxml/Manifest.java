@@ -0,0 +1,268 @@
+/*
+ * Manifest.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records what the derived outputs (PDF version specific TSV file sets and
+ * XML files, called "targets") were last generated from, so that a rerun
+ * only regenerates what depends on changed input TSV files.
+ * <p>
+ * The manifest holds the SHA-256 of every input TSV file as of the last run
+ * and, for every target, a single hash of the complete input file set that
+ * the target was generated from. Everything is invalidated if the gcxml
+ * version or the output version changes, and a target is regenerated in full if it was built for
+ * a different set of extensions (see ExtensionProfile).
+ * <p>
+ * File format (TAB separated, one entry per line):
+ * <pre>
+ * gcxml    &lt;Gcxml_version&gt;  &lt;Output_version&gt;
+ * options  &lt;extensions&gt;  (only if not the default ExtensionProfile)
+ * file     &lt;object name&gt;  &lt;SHA-256&gt;
+ * target   &lt;target name&gt;  &lt;SHA-256 of all file hashes&gt;
+ * </pre>
+ */
+public class Manifest {
+    /**
+     * Default location of the manifest, relative to the Arlington main folder.
+     */
+    public static final String MANIFEST_FILE = "tsv/.gcxml-manifest";
+
+    /**
+     * First line of a manifest, so that one written by a different version
+     * of gcxml or for different output is ignored
+     */
+    private static final String HEADER = "gcxml\t" + Gcxml.Gcxml_version + "\t" + Gcxml.Output_version;
+
+    /**
+     * Hashes of each input TSV file, by object name
+     */
+    private final TreeMap<String, String> file_hashes;
+
+    /**
+     * Hash of the input file set each target was generated from, by target name
+     */
+    private final TreeMap<String, String> target_hashes;
+
+    /**
+     * The extensions targeted ("" for the default ExtensionProfile)
+     */
+    private final String options;
+
+    private Manifest(TreeMap<String, String> file_hashes, TreeMap<String, String> target_hashes, String options) {
+        this.file_hashes = file_hashes;
+        this.target_hashes = target_hashes;
+        this.options = options;
+    }
+
+    /**
+     * Creates a manifest of a loaded TSV file set, with no targets yet.
+     *
+     * @param model  the latest Arlington TSV file set
+     * @return a new manifest
+     */
+    public static Manifest of(ArlingtonModel model) {
+        return of(model, ExtensionProfile.ALL);
+    }
+
+    /**
+     * Creates a manifest of a loaded TSV file set for targets specialised
+     * for a set of extensions, with no targets yet.
+     *
+     * @param model  the latest Arlington TSV file set
+     * @param profile  the extensions being targeted
+     * @return a new manifest
+     */
+    public static Manifest of(ArlingtonModel model, ExtensionProfile profile) {
+        TreeMap<String, String> hashes = new TreeMap<>();
+        for (ArlingtonModel.TSVObject obj : model.getObjects()) {
+            hashes.put(obj.getName(), obj.getContentHash());
+        }
+        return new Manifest(hashes, new TreeMap<>(), profile.toString());
+    }
+
+    /**
+     * Reads a manifest. A missing, unreadable or malformed manifest, or one
+     * written by a different version of gcxml or for a different output
+     * version, results in an empty manifest so that everything gets
+     * regenerated.
+     *
+     * @param path  the manifest file
+     * @return the manifest (never null)
+     */
+    public static Manifest load(Path path) {
+        TreeMap<String, String> files = new TreeMap<>();
+        TreeMap<String, String> targets = new TreeMap<>();
+        String options = "";
+        if (Files.isReadable(path)) {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line = in.readLine();
+                if ((line != null) && line.equals(HEADER)) {
+                    while ((line = in.readLine()) != null) {
+                        String[] f = line.split("\t", -1);
+                        if ((f.length == 3) && f[0].equals("file")) {
+                            files.put(f[1], f[2]);
+                        }
+                        else if ((f.length == 3) && f[0].equals("target")) {
+                            targets.put(f[1], f[2]);
+                        }
+                        else if ((f.length == 2) && f[0].equals("options")) {
+                            options = f[1];
+                        }
+                        else {
+                            System.out.println("Ignoring malformed manifest " + path);
+                            files.clear();
+                            targets.clear();
+                            options = "";
+                            break;
+                        }
+                    }
+                }
+            }
+            catch (IOException ex) {
+                System.out.println("Ignoring unreadable manifest " + path + ": " + ex.getMessage());
+                files.clear();
+                targets.clear();
+                options = "";
+            }
+        }
+        return new Manifest(files, targets, options);
+    }
+
+    /**
+     * Writes the manifest, replacing any existing file in one step.
+     *
+     * @param path  the manifest file
+     * @throws IOException if the manifest could not be written
+     */
+    public synchronized void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER + "\n");
+            if (!options.isEmpty()) {
+                out.write("options\t" + options + "\n");
+            }
+            for (Map.Entry<String, String> e : file_hashes.entrySet()) {
+                out.write("file\t" + e.getKey() + "\t" + e.getValue() + "\n");
+            }
+            for (Map.Entry<String, String> e : target_hashes.entrySet()) {
+                out.write("target\t" + e.getKey() + "\t" + e.getValue() + "\n");
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return a single hash of the complete input TSV file set
+     */
+    public String getFileSetHash() {
+        return fileSetHash(file_hashes);
+    }
+
+    /**
+     * Works out what needs to be regenerated for a target, comparing this
+     * manifest (of the current inputs) with the one from the previous run.
+     *
+     * @param target  the target name (e.g. "tsv/1.7")
+     * @param previous  the manifest from the previous run
+     * @return null if the target must be completely regenerated (also if
+     *         the extensions targeted have changed), an empty
+     *         set if it is up-to-date, otherwise the names of the objects
+     *         that were changed, added or removed.
+     */
+    public Set<String> changedSince(String target, Manifest previous) {
+        String built_from = previous.target_hashes.get(target);
+        if ((built_from == null) || !built_from.equals(previous.getFileSetHash()) || !options.equals(previous.options)) {
+            // never built, or built from inputs whose file hashes are not known
+            return null;
+        }
+        if (built_from.equals(getFileSetHash())) {
+            return Collections.emptySet();
+        }
+        TreeSet<String> changed = new TreeSet<>();
+        for (Map.Entry<String, String> e : file_hashes.entrySet()) {
+            if (!e.getValue().equals(previous.file_hashes.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        for (String name : previous.file_hashes.keySet()) {
+            if (!file_hashes.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records that a target is now up-to-date with the inputs in this manifest.
+     *
+     * @param target  the target name (e.g. "tsv/1.7")
+     */
+    public synchronized void setTargetBuilt(String target) {
+        target_hashes.put(target, getFileSetHash());
+    }
+
+    /**
+     * Carries over targets from a previous run that were not regenerated in
+     * this run, so that they are still known next time. Targets built for
+     * other extensions are not carried over.
+     *
+     * @param previous  the manifest from the previous run
+     */
+    public synchronized void keepTargets(Manifest previous) {
+        if (!options.equals(previous.options)) {
+            return;
+        }
+        for (Map.Entry<String, String> e : previous.target_hashes.entrySet()) {
+            target_hashes.putIfAbsent(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @param hashes  the hashes of a TSV file set, sorted by object name
+     * @return a single SHA-256 over all names and hashes, as lowercase hex
+     */
+    private static String fileSetHash(TreeMap<String, String> hashes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, String> e : hashes.entrySet()) {
+                md.update((e.getKey() + "\t" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
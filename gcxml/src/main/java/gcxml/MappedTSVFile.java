@@ -0,0 +1,277 @@
+/*
+ * MappedTSVFile.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A read-only Arlington TSV file held in memory. Rows are indexed once as
+ * field offsets over the file's bytes and each field is exposed as a
+ * CharSequence view, so no String is allocated unless a caller asks for one.
+ * Arlington TSV files are ASCII. A file that is not is decoded as UTF-8 once
+ * and the same views are then taken over the decoded text.
+ */
+public final class MappedTSVFile {
+
+    /**
+     * A CharSequence view of a single field (or any other span) of the file.
+     * hashCode() is the same as for the equivalent String.
+     */
+    public static final class Field implements CharSequence {
+        private final CharSequence source;
+        private final int start;
+        private final int end;
+
+        private Field(CharSequence source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return source.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if ((from < 0) || (to > length()) || (from > to)) {
+                throw new IndexOutOfBoundsException("subSequence(" + from + "," + to + ") of length " + length());
+            }
+            return new Field(source, start + from, start + to);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + source.charAt(i);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Field) && contentEquals((Field) obj);
+        }
+
+        /**
+         * @param cs  any character sequence
+         * @return true if cs has exactly the same characters as this field
+         */
+        public boolean contentEquals(CharSequence cs) {
+            if (cs.length() != length()) {
+                return false;
+            }
+            for (int i = 0; i < cs.length(); i++) {
+                if (cs.charAt(i) != source.charAt(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Materialises the field as a String.
+         */
+        @Override
+        public String toString() {
+            if (source instanceof String) {
+                return ((String) source).substring(start, end);
+            }
+            return ((AsciiBytes) source).toString(start, end);
+        }
+    }
+
+    /**
+     * ASCII bytes (e.g. a whole file) presented as a CharSequence.
+     */
+    private static final class AsciiBytes implements CharSequence {
+        private final ByteBuffer bytes;
+
+        private AsciiBytes(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new Field(this, from, to);
+        }
+
+        private String toString(int from, int to) {
+            byte[] b = new byte[to - from];
+            ByteBuffer dup = bytes.duplicate();
+            dup.position(from);
+            dup.get(b);
+            return new String(b, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return toString(0, bytes.limit());
+        }
+    }
+
+    /**
+     * The bytes of the whole file
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The whole file as characters - either ASCII bytes or decoded text.
+     */
+    private final CharSequence text;
+
+    /**
+     * Per line: [0] = offset of line start, [k+1] = offset just past field k.
+     */
+    private final int[][] lines;
+
+    private MappedTSVFile(ByteBuffer bytes, CharSequence text, int[][] lines) {
+        this.bytes = bytes;
+        this.text = text;
+        this.lines = lines;
+    }
+
+    /**
+     * Reads and indexes a TSV file. The file is read into a heap buffer and
+     * closed on return rather than memory-mapped: a mapping is only released
+     * by garbage collection, and while it exists the file cannot be replaced
+     * or truncated on Windows, which would block saving a TSV file in an
+     * editor (or publishing a TSV file set) during -watch. Arlington TSV
+     * files are small, so copying them costs little.
+     *
+     * @param file  the TSV file
+     * @param delimiter  should be '\t'
+     * @return the indexed TSV file
+     * @throws IOException if the file cannot be read
+     */
+    public static MappedTSVFile open(File file, char delimiter) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+
+        CharSequence text = new AsciiBytes(bytes);
+        for (int i = 0; i < bytes.limit(); i++) {
+            if (bytes.get(i) < 0) {
+                text = StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+                break;
+            }
+        }
+
+        // Split into lines (LF or CR-LF) and fields, like BufferedReader.readLine() and split(delimiter, -1)
+        ArrayList<int[]> lines = new ArrayList<>();
+        int[] bounds = new int[13];
+        int nfields = 0;
+        int len = text.length();
+        int line_start = 0;
+        for (int i = 0; i <= len; i++) {
+            char ch = (i < len) ? text.charAt(i) : '\n';
+            if (ch == delimiter) {
+                if (nfields + 3 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[++nfields] = i;
+            }
+            else if (ch == '\n') {
+                if ((i == len) && (line_start == len)) {
+                    break; // final EOL is not the start of another line
+                }
+                int line_end = ((i > line_start) && (text.charAt(i-1) == '\r')) ? i - 1 : i;
+                bounds[0] = line_start;
+                bounds[++nfields] = line_end;
+                lines.add(Arrays.copyOf(bounds, nfields + 1));
+                nfields = 0;
+                line_start = i + 1;
+            }
+        }
+        return new MappedTSVFile(bytes, text, lines.toArray(new int[0][]));
+    }
+
+    /**
+     * @return number of lines, including the header row
+     */
+    public int getLineCount() {
+        return lines.length;
+    }
+
+    /**
+     * @param line  zero-based line number (0 is the header row)
+     * @return the number of fields on that line
+     */
+    public int getFieldCount(int line) {
+        return lines[line].length - 1;
+    }
+
+    /**
+     * @param line  zero-based line number (0 is the header row)
+     * @param field  zero-based field number
+     * @return a view of the field
+     */
+    public Field getField(int line, int field) {
+        int[] b = lines[line];
+        int start = (field == 0) ? b[0] : b[field] + 1;
+        return new Field(text, start, b[field + 1]);
+    }
+
+    /**
+     * @param line  zero-based line number (0 is the header row)
+     * @return a view of the entire line, without the EOL
+     */
+    public Field getLine(int line) {
+        int[] b = lines[line];
+        return new Field(text, b[0], b[b.length - 1]);
+    }
+
+    /**
+     * @return SHA-256 of the raw bytes of the file, as lowercase hex
+     */
+    public String getContentHash() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(bytes.duplicate());
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
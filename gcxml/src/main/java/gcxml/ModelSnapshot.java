@@ -0,0 +1,332 @@
+/*
+ * ModelSnapshot.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of the latest Arlington TSV file set together
+ * with the already reduced TSV file sets of every PDF version, so that a
+ * model can be loaded in a few milliseconds instead of reading and reducing
+ * all TSV files.
+ * <p>
+ * Every distinct field value is stored once in a string table. Each TSV
+ * file set is stored as columns (normally 12) of string table indices, and
+ * each object is a range of rows in those columns. A snapshot is only used
+ * if it was written by the same gcxml version, for the same output version
+ * (see Gcxml.Output_version), from a latest TSV folder with the same file
+ * names, sizes and modification times.
+ * <p>
+ * File format (big-endian, strings are an int byte count then UTF-8):
+ * <pre>
+ * "GCXMLSNP" format_version gcxml_version output_version input_fingerprint
+ * string_count string...
+ * set_count
+ *   per set:    name_index object_count row_count column_count
+ *   per object: name_index hash_index header_index first_row row_count
+ *   per column: row_count string indices
+ * </pre>
+ * Index -1 means none, and marks the missing fields of a row that has
+ * fewer fields than there are columns. The first set is "latest", the
+ * others are named by PDF version.
+ */
+public final class ModelSnapshot {
+    /**
+     * Default location of the snapshot, relative to the Arlington main folder.
+     */
+    public static final String SNAPSHOT_FILE = "tsv/.gcxml-snapshot";
+
+    private static final byte[] MAGIC = "GCXMLSNP".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Incremented whenever the file format changes
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The rows of one object in a TSV file set being compiled
+     */
+    private static final class CompiledObject {
+        private final ArlingtonModel.TSVObject source;
+        private final ArrayList<CharSequence[]> rows = new ArrayList<>();
+
+        private CompiledObject(ArlingtonModel.TSVObject source) {
+            this.source = source;
+        }
+    }
+
+    private ModelSnapshot() {
+    }
+
+    /**
+     * Reduces the latest TSV file set for every PDF version and writes
+     * everything as a snapshot, replacing any existing file in one step.
+     *
+     * @param latest  the latest Arlington TSV file set
+     * @param path  the snapshot file
+     * @throws IOException if the snapshot could not be written
+     */
+    public static void compile(ArlingtonModel latest, Path path) throws IOException {
+        String fingerprint = fingerprint(latest.getFolder());
+
+        // Collect the rows of the latest and every PDF version specific TSV file set
+        ArrayList<String> set_names = new ArrayList<>();
+        ArrayList<List<CompiledObject>> sets = new ArrayList<>();
+        ArrayList<CompiledObject> latest_set = new ArrayList<>();
+        for (ArlingtonModel.TSVObject obj : latest.getObjects()) {
+            CompiledObject c = new CompiledObject(obj);
+            for (int r = 0; r < obj.getRowCount(); r++) {
+                CharSequence[] row = new CharSequence[obj.getFieldCount(r)];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = obj.getField(r, i);
+                }
+                c.rows.add(row);
+            }
+            latest_set.add(c);
+        }
+        set_names.add("latest");
+        sets.add(latest_set);
+
+        TSVHandler tsv = new TSVHandler(latest);
+        for (PdfVersion version : PdfVersion.values()) {
+            ArrayList<CompiledObject> version_set = new ArrayList<>();
+            for (ArlingtonModel.TSVObject obj : latest.getObjects()) {
+                CompiledObject c = new CompiledObject(obj);
+                tsv.reduceTSVobject(obj, version, fields -> c.rows.add(fields.clone()), new StringBuilder());
+                if (!c.rows.isEmpty()) {
+                    version_set.add(c);
+                }
+            }
+            set_names.add(version.toString());
+            sets.add(version_set);
+        }
+
+        // Build the string table
+        StringDictionary dictionary = new StringDictionary();
+        for (String name : set_names) {
+            dictionary.intern(name);
+        }
+        for (List<CompiledObject> set : sets) {
+            for (CompiledObject c : set) {
+                intern(c.source.getName(), dictionary);
+                intern(c.source.getContentHash(), dictionary);
+                intern(c.source.getHeader(), dictionary);
+                for (CharSequence[] row : c.rows) {
+                    for (CharSequence field : row) {
+                        dictionary.intern(field);
+                    }
+                }
+            }
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        int row_total = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, Gcxml.Gcxml_version);
+            out.writeInt(Gcxml.Output_version);
+            writeString(out, fingerprint);
+            out.writeInt(dictionary.size());
+            for (int i = 0; i < dictionary.size(); i++) {
+                writeString(out, dictionary.get(i));
+            }
+            out.writeInt(sets.size());
+            for (int s = 0; s < sets.size(); s++) {
+                List<CompiledObject> set = sets.get(s);
+                int row_count = 0;
+                int column_count = 0;
+                for (CompiledObject c : set) {
+                    row_count += c.rows.size();
+                    for (CharSequence[] row : c.rows) {
+                        column_count = Math.max(column_count, row.length);
+                    }
+                }
+                out.writeInt(dictionary.intern(set_names.get(s)));
+                out.writeInt(set.size());
+                out.writeInt(row_count);
+                out.writeInt(column_count);
+                int first_row = 0;
+                for (CompiledObject c : set) {
+                    out.writeInt(intern(c.source.getName(), dictionary));
+                    out.writeInt(intern(c.source.getContentHash(), dictionary));
+                    out.writeInt(intern(c.source.getHeader(), dictionary));
+                    out.writeInt(first_row);
+                    out.writeInt(c.rows.size());
+                    first_row += c.rows.size();
+                }
+                for (int col = 0; col < column_count; col++) {
+                    for (CompiledObject c : set) {
+                        for (CharSequence[] row : c.rows) {
+                            out.writeInt((col < row.length) ? dictionary.intern(row[col]) : -1);
+                        }
+                    }
+                }
+                row_total += row_count;
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Compiled " + sets.size() + " TSV file sets (" + row_total + " rows, "
+                + dictionary.size() + " distinct strings) into " + path);
+    }
+
+    /**
+     * Loads the latest TSV file set, including the already reduced TSV file
+     * sets of every PDF version, from a snapshot. A snapshot written by a
+     * different version of gcxml, or compiled from a different latest TSV
+     * file set, is rejected.
+     *
+     * @param path  the snapshot file
+     * @param tsv_folder  the latest TSV folder the snapshot must match
+     * @return the model, or null if the snapshot cannot be used
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static ArlingtonModel load(Path path, String tsv_folder) throws IOException {
+        // Read rather than memory-mapped, so that -compile can replace the snapshot while -watch is running (see MappedTSVFile)
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || (buf.getInt() != FORMAT_VERSION)) {
+                System.out.println("Ignoring snapshot " + path + " as it is not in the current format");
+                return null;
+            }
+            String version = readString(buf);
+            if (!version.equals(Gcxml.Gcxml_version)) {
+                System.out.println("Ignoring snapshot " + path + " as it was written by gcxml " + version);
+                return null;
+            }
+            int output_version = buf.getInt();
+            if (output_version != Gcxml.Output_version) {
+                System.out.println("Ignoring snapshot " + path + " as its PDF version TSV file sets are of output version " + output_version);
+                return null;
+            }
+            if (!readString(buf).equals(fingerprint(tsv_folder))) {
+                System.out.println("Ignoring snapshot " + path + " as " + tsv_folder + " has changed since it was compiled");
+                return null;
+            }
+
+            String[] strings = new String[buf.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = readString(buf);
+            }
+
+            PredicateParser.parseAll(strings);
+
+            int set_count = buf.getInt();
+            ArlingtonModel latest = null;
+            EnumMap<PdfVersion, ArlingtonModel> version_models = new EnumMap<>(PdfVersion.class);
+            for (int s = 0; s < set_count; s++) {
+                String set_name = strings[buf.getInt()];
+                int object_count = buf.getInt();
+                int row_count = buf.getInt();
+                int column_count = buf.getInt();
+                int[] object_info = new int[object_count * 5];
+                buf.asIntBuffer().get(object_info);
+                buf.position(buf.position() + object_info.length * 4);
+                int[][] columns = new int[column_count][row_count];
+                for (int col = 0; col < column_count; col++) {
+                    buf.asIntBuffer().get(columns[col]);
+                    buf.position(buf.position() + row_count * 4);
+                }
+
+                ArrayList<ArlingtonModel.TSVObject> objs = new ArrayList<>(object_count);
+                for (int o = 0; o < object_info.length; o += 5) {
+                    objs.add(new ArlingtonModel.TSVObject(strings[object_info[o]], stringAt(strings, object_info[o+1]),
+                            stringAt(strings, object_info[o+2]), strings, columns, object_info[o+3], object_info[o+4]));
+                }
+                if (s == 0) {
+                    latest = new ArlingtonModel(tsv_folder, objs, strings.length, version_models);
+                }
+                else {
+                    version_models.put(PdfVersion.fromString(set_name), new ArlingtonModel(tsv_folder, objs, strings.length, Map.of()));
+                }
+            }
+            return latest;
+        }
+        catch (RuntimeException ex) {
+            throw new IOException("Corrupt snapshot " + path, ex);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of a TSV folder from the names, sizes and
+     * modification times of its files, without reading them.
+     *
+     * @param tsv_folder  a TSV folder
+     * @return SHA-256 as lowercase hex
+     * @throws IOException if the folder cannot be listed
+     */
+    private static String fingerprint(String tsv_folder) throws IOException {
+        File[] list_of_files = new File(tsv_folder).listFiles();
+        if (list_of_files == null) {
+            throw new IOException("Cannot list TSV folder " + tsv_folder);
+        }
+        Arrays.sort(list_of_files);
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (File file : list_of_files) {
+                if (file.isFile()) {
+                    md.update((file.getName() + "\t" + file.length() + "\t" + file.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static int intern(String str, StringDictionary dictionary) {
+        return (str != null) ? dictionary.intern(str) : -1;
+    }
+
+    private static String stringAt(String[] strings, int i) {
+        return (i >= 0) ? strings[i] : null;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * PartialEvaluator.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Partially evaluates Arlington predicates for a known PDF version: version
+ * predicates are replaced by what they mean in that PDF version and then
+ * "&amp;&amp;", "||" and fn:Not() are constant folded. Whatever cannot be
+ * decided without a PDF file is left as a minimal residual expression,
+ * using the original text of every part that did not change.
+ * <p>
+ * Version predicates:
+ * - fn:SinceVersion(x.y), fn:BeforeVersion(x.y), fn:IsPDFVersion(x.y) become true or false
+ * - fn:SinceVersion(x.y,stmt) etc. become stmt in the PDF versions they apply to.
+ *   In other PDF versions a Required condition is false (not required), while
+ *   in fn:Eval the condition does not constrain anything: it is dropped from
+ *   "&amp;&amp;" and "||" (as their neutral element) and on its own it is true.
+ * <p>
+ * Folding a predicate that does not apply is only sound in a positive
+ * position: at the top level, in the operands of "&amp;&amp;" and "||" and in
+ * the stmt of an applicable predicate. Under fn:Not() a predicate with a stmt
+ * is left as it is, and in an operand of any other operator or function (e.g.
+ * "@V==fn:SinceVersion(1.5)") version and extension predicates are not folded.
+ * <p>
+ * Extension predicates are only folded for a specialised ExtensionProfile:
+ * - fn:Extension(AAA) becomes true or false
+ * - fn:Extension(AAA,stmt) becomes stmt if AAA is enabled, otherwise false
+ *   (in a positive position)
+ * <p>
+ * Predicate nodes are interned (see PredicateParser), so the result of
+ * folding a node is memoized per node (and position) for each PDF version,
+ * kind of condition and ExtensionProfile: a sub-expression that appears in
+ * many fields is only folded once.
+ */
+public final class PartialEvaluator {
+
+    /**
+     * Where a sub-expression is, which decides what may be folded
+     */
+    private enum Position {
+        /** top level, or an operand of "&amp;&amp;" or "||" in a positive position */
+        POSITIVE,
+        /** under fn:Not() */
+        NEGATED,
+        /** an operand of any other operator or function */
+        OPERAND
+    }
+
+    /**
+     * The result of partially evaluating a sub-expression: a constant
+     * (text is null) or a residual expression.
+     */
+    private static final class Value {
+        private static final Value TRUE = new Value(null, true, null, false);
+        private static final Value FALSE = new Value(null, false, null, false);
+
+        /** residual expression, or null for a constant */
+        private final String    text;
+        /** constant value */
+        private final boolean   constant;
+        /** the operator if the residual is an unbracketed operator expression, e.g. "&amp;&amp;" */
+        private final String    op;
+        /** true if the residual is a single bracketed expression */
+        private final boolean   bracketed;
+
+        private Value(String text, boolean constant, String op, boolean bracketed) {
+            this.text = text;
+            this.constant = constant;
+            this.op = op;
+            this.bracketed = bracketed;
+        }
+
+        private static Value of(boolean b) {
+            return b ? TRUE : FALSE;
+        }
+
+        private boolean isConstant() {
+            return text == null;
+        }
+
+        /**
+         * @return the residual or constant as predicate text
+         */
+        private String text() {
+            return isConstant() ? (constant ? "true" : "false") : text;
+        }
+    }
+
+    private final PdfVersion        version;
+    private final boolean           required;
+    private final ExtensionProfile  profile;
+
+    /**
+     * Evaluators by PDF version, kind of condition and extension profile
+     */
+    private static final ConcurrentHashMap<String, PartialEvaluator> evaluators = new ConcurrentHashMap<>();
+
+    /**
+     * Results of folding each (interned) node so far, by node identity, for
+     * each Position
+     */
+    private final EnumMap<Position, ConcurrentHashMap<PredicateNode, Value>> folded = new EnumMap<>(Position.class);
+
+    /**
+     * @param version  the PDF version
+     * @param required  true for a Required condition, false for fn:Eval
+     * @param profile  the extensions being targeted
+     */
+    private PartialEvaluator(PdfVersion version, boolean required, ExtensionProfile profile) {
+        this.version = version;
+        this.required = required;
+        this.profile = profile;
+        for (Position pos : Position.values()) {
+            folded.put(pos, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Forgets the results of folding all nodes so far, e.g. before the
+     * latest TSV file set is reloaded (see PredicateParser.clearCaches()).
+     */
+    public static void clearCaches() {
+        evaluators.clear();
+    }
+
+    /**
+     * @return the shared evaluator for a PDF version, kind of condition and extension profile
+     */
+    private static PartialEvaluator of(PdfVersion version, boolean required, ExtensionProfile profile) {
+        String key = version + (required ? "/required/" : "/eval/") + profile;
+        return evaluators.computeIfAbsent(key, k -> new PartialEvaluator(version, required, profile));
+    }
+
+    /**
+     * Partially evaluates an Arlington "Required" field such as
+     * "fn:IsRequired(fn:SinceVersion(2.0) || fn:IsPresent(Encrypt))".
+     *
+     * @param reqd  the Required field from an Arlington TSV file
+     * @param version  the PDF version being targeted
+     * @return "TRUE", "FALSE" or fn:IsRequired() of the residual condition.
+     *         Fields that are not a valid fn:IsRequired() are returned unchanged.
+     */
+    public static String reduceRequired(String reqd, PdfVersion version) {
+        return reduceRequired(reqd, version, ExtensionProfile.ALL);
+    }
+
+    /**
+     * @param reqd  the Required field from an Arlington TSV file
+     * @param version  the PDF version being targeted
+     * @param profile  the extensions being targeted
+     * @return see reduceRequired(String, PdfVersion)
+     */
+    public static String reduceRequired(String reqd, PdfVersion version, ExtensionProfile profile) {
+        PredicateNode fn = parse(reqd);
+        if ((fn == null) || !fn.isFunction("fn:IsRequired", 1)) {
+            return reqd;
+        }
+        Value v = of(version, true, profile).fold(fn.getChild(0), Position.POSITIVE);
+        if (v.isConstant()) {
+            return v.constant ? "TRUE" : "FALSE";
+        }
+        return rewrap(reqd, fn, v);
+    }
+
+    /**
+     * Partially evaluates a single fn:Eval() or fn:IsMeaningful() predicate,
+     * such as the SpecialCase "fn:Eval(fn:BeforeVersion(2.0,fn:BitsClear(8,32)) &amp;&amp; fn:BitsClear(10,32))".
+     *
+     * @param eval  the predicate
+     * @param version  the PDF version being targeted
+     * @return "true" if the predicate always holds, otherwise the same function
+     *         of the residual (possibly "fn:Eval(false)"). Anything that is not
+     *         a valid fn:Eval() or fn:IsMeaningful() is returned unchanged.
+     */
+    public static String reduceEval(String eval, PdfVersion version) {
+        return reduceEval(eval, version, ExtensionProfile.ALL);
+    }
+
+    /**
+     * @param eval  the predicate
+     * @param version  the PDF version being targeted
+     * @param profile  the extensions being targeted
+     * @return see reduceEval(String, PdfVersion)
+     */
+    public static String reduceEval(String eval, PdfVersion version, ExtensionProfile profile) {
+        PredicateNode fn = parse(eval);
+        if ((fn == null) || !(fn.isFunction("fn:Eval", 1) || fn.isFunction("fn:IsMeaningful", 1))) {
+            return eval;
+        }
+        Value v = of(version, false, profile).fold(fn.getChild(0), Position.POSITIVE);
+        if (v.isConstant() && v.constant) {
+            return "true";
+        }
+        return rewrap(eval, fn, v);
+    }
+
+    /**
+     * Partially evaluates a bare version predicate of a SpecialCase field,
+     * such as "fn:SinceVersion(1.5,fn:Not(fn:IsPresent(@SMaskInData&gt;0)))",
+     * as if it was the argument of fn:Eval().
+     *
+     * @param predicate  the predicate
+     * @param version  the PDF version being targeted
+     * @param profile  the extensions being targeted
+     * @return "true" if the predicate always holds, otherwise the residual.
+     *         Anything that is not a valid predicate is returned unchanged.
+     */
+    public static String reduceCondition(String predicate, PdfVersion version, ExtensionProfile profile) {
+        PredicateNode node = parse(predicate);
+        if (node == null) {
+            return predicate;
+        }
+        return of(version, false, profile).fold(node, Position.POSITIVE).text();
+    }
+
+    private static PredicateNode parse(String predicate) {
+        if (!predicate.startsWith("fn:")) {
+            return null;
+        }
+        try {
+            return PredicateParser.parse(predicate);
+        }
+        catch (IllegalArgumentException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the single argument function 'fn' with its argument replaced by the residual
+     */
+    private static String rewrap(String source, PredicateNode fn, Value v) {
+        PredicateNode arg = fn.getChild(0);
+        String text = v.text();
+        if (text.equals(arg.getText())) {
+            return source;
+        }
+        if (v.bracketed) {
+            // brackets around the whole argument are redundant
+            text = text.substring(1, text.length() - 1);
+        }
+        String fn_text = fn.getText();
+        return fn_text.substring(0, fn.getChildStart(0)) + text + fn_text.substring(fn.getChildEnd(0));
+    }
+
+    /**
+     * Folds a node, or returns the memoized result of folding it before
+     *
+     * @param pos  where the node is
+     */
+    private Value fold(PredicateNode node, Position pos) {
+        ConcurrentHashMap<PredicateNode, Value> memo = folded.get(pos);
+        Value v = memo.get(node);
+        if (v == null) {
+            v = foldNode(node, pos);
+            memo.putIfAbsent(node, v);
+        }
+        return v;
+    }
+
+    private Value foldNode(PredicateNode node, Position pos) {
+        switch (node.getKind()) {
+            case OPERATOR:
+                if (node.getName().equals("&&") || node.getName().equals("||")) {
+                    return foldLogical(node, pos);
+                }
+                return splice(node, node.getName(), Position.OPERAND);
+            case GROUP: {
+                Value v = fold(node.getChild(0), pos);
+                if (v.isConstant()) {
+                    return v;
+                }
+                if (v.text.equals(node.getChild(0).getText())) {
+                    return new Value(node.getText(), false, null, true);
+                }
+                if ((v.op == null) && !v.bracketed) {
+                    // brackets around a single predicate or value are redundant
+                    return v;
+                }
+                return v.bracketed ? v : new Value("(" + v.text + ")", false, null, true);
+            }
+            case FUNCTION:
+                return foldFunction(node, pos);
+            default:
+                return new Value(node.getText(), false, null, false);
+        }
+    }
+
+    /**
+     * @return whether a version predicate applies to the PDF version, or null
+     *         if 'fn' is not a version predicate
+     */
+    private Boolean versionApplies(PredicateNode fn) {
+        String name = fn.getName();
+        boolean is_version_fn = name.equals("fn:SinceVersion") || name.equals("fn:BeforeVersion") || name.equals("fn:IsPDFVersion");
+        if (!is_version_fn || (fn.getChildren().size() < 1) || (fn.getChildren().size() > 2) || !fn.getChild(0).isReal()) {
+            return null;
+        }
+        double v = Double.parseDouble(fn.getChild(0).getText());
+        switch (name) {
+            case "fn:SinceVersion":
+                return version.getValue() >= v;
+            case "fn:BeforeVersion":
+                return version.getValue() < v;
+            default:
+                return PdfVersion.fromValue(v) == version;
+        }
+    }
+
+    /**
+     * @return true if a node is (bracketed) fn:SinceVersion(x.y,stmt) or the
+     *         like in an fn:Eval condition, in a positive position and in a
+     *         PDF version it does not apply to - so it does not constrain anything
+     */
+    private boolean isNeutral(PredicateNode node, Position pos) {
+        if (required || (pos != Position.POSITIVE)) {
+            return false;
+        }
+        while (node.getKind() == PredicateNode.Kind.GROUP) {
+            node = node.getChild(0);
+        }
+        if ((node.getKind() != PredicateNode.Kind.FUNCTION) || (node.getChildren().size() != 2)) {
+            return false;
+        }
+        Boolean applies = versionApplies(node);
+        return (applies != null) && !applies;
+    }
+
+    private Value foldFunction(PredicateNode fn, Position pos) {
+        String name = fn.getName();
+        Boolean version_applies = (pos != Position.OPERAND) ? versionApplies(fn) : null;
+        if (version_applies != null) {
+            boolean applies = version_applies;
+            if (fn.getChildren().size() == 1) {
+                return Value.of(applies);
+            }
+            if (applies) {
+                return fold(fn.getChild(1), pos);
+            }
+            if (pos == Position.POSITIVE) {
+                // not required, or no constraint in fn:Eval
+                return Value.of(!required);
+            }
+            // any extension predicates in stmt are still folded
+            return profile.isSpecialised() ? splice(fn, null, pos) : new Value(fn.getText(), false, null, false);
+        }
+
+        if (profile.isSpecialised() && name.equals("fn:Extension") && (pos != Position.OPERAND) && (fn.getChildren().size() >= 1) && (fn.getChildren().size() <= 2)) {
+            boolean enabled = profile.isEnabled(fn.getChild(0).getText());
+            if (fn.getChildren().size() == 1) {
+                return Value.of(enabled);
+            }
+            if (enabled) {
+                return fold(fn.getChild(1), pos);
+            }
+            if (pos == Position.POSITIVE) {
+                return Value.FALSE;
+            }
+            return splice(fn, null, pos);
+        }
+
+        if (fn.isFunction("fn:Not", 1)) {
+            Value v = fold(fn.getChild(0), (pos == Position.POSITIVE) ? Position.NEGATED : pos);
+            if (v.isConstant()) {
+                return Value.of(!v.constant);
+            }
+            if (v.text.equals(fn.getChild(0).getText())) {
+                return new Value(fn.getText(), false, null, false);
+            }
+            return new Value("fn:Not(" + (v.bracketed ? v.text.substring(1, v.text.length() - 1) : v.text) + ")", false, null, false);
+        }
+        return splice(fn, null, Position.OPERAND);
+    }
+
+    /**
+     * Folds a chain of the same logical operator, e.g. "a &amp;&amp; b &amp;&amp; c"
+     */
+    private Value foldLogical(PredicateNode node, Position pos) {
+        String op = node.getName();
+        boolean is_and = op.equals("&&");
+        List<PredicateNode> operands = new ArrayList<>();
+        flatten(node, op, operands);
+
+        ArrayList<Value> kept = new ArrayList<>();
+        boolean changed = false;
+        int neutral_count = 0;
+        for (PredicateNode operand : operands) {
+            if (isNeutral(operand, pos)) {
+                // a condition that does not apply is dropped from either operator
+                neutral_count++;
+                changed = true;
+                continue;
+            }
+            Value v = fold(operand, pos);
+            if (v.isConstant()) {
+                if (v.constant != is_and) {
+                    // false && ... or true || ...
+                    return v;
+                }
+                // true && x is x, false || x is x
+                changed = true;
+            }
+            else {
+                changed |= !v.text.equals(operand.getText());
+                kept.add(v);
+            }
+        }
+        if (!changed) {
+            return new Value(node.getText(), false, op, false);
+        }
+        if (kept.isEmpty()) {
+            return Value.of(is_and || (neutral_count == operands.size()));
+        }
+        if (kept.size() == 1) {
+            return kept.get(0);
+        }
+        StringBuilder s = new StringBuilder();
+        for (Value v : kept) {
+            if (s.length() > 0) {
+                s.append(' ').append(op).append(' ');
+            }
+            s.append(((v.op != null) && !v.op.equals(op)) ? "(" + v.text + ")" : v.text);
+        }
+        return new Value(s.toString(), false, op, false);
+    }
+
+    private static void flatten(PredicateNode node, String op, List<PredicateNode> operands) {
+        if ((node.getKind() == PredicateNode.Kind.OPERATOR) && node.getName().equals(op)) {
+            flatten(node.getChild(0), op, operands);
+            flatten(node.getChild(1), op, operands);
+        }
+        else {
+            operands.add(node);
+        }
+    }
+
+    /**
+     * Keeps a node as it is, except for any of its children that changed
+     *
+     * @param op  the operator if the node is a (non-logical) operator, otherwise null
+     * @param child_pos  where the children are: OPERAND, or the position of
+     *                   a version or extension predicate that is kept as it is
+     */
+    private Value splice(PredicateNode node, String op, Position child_pos) {
+        String source = node.getText();
+        StringBuilder s = null;
+        int pos = 0;
+        for (int i = 0; i < node.getChildren().size(); i++) {
+            PredicateNode child = node.getChild(i);
+            Value v = fold(child, child_pos);
+            String text = v.text();
+            if (!text.equals(child.getText())) {
+                if (s == null) {
+                    s = new StringBuilder();
+                }
+                s.append(source, pos, node.getChildStart(i)).append(text);
+                pos = node.getChildEnd(i);
+            }
+        }
+        if (s == null) {
+            return new Value(source, false, op, false);
+        }
+        s.append(source, pos, source.length());
+        return new Value(s.toString(), false, op, false);
+    }
+}
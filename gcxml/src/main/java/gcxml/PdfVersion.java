@@ -0,0 +1,89 @@
+/*
+ * PdfVersion.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+/**
+ * The PDF versions covered by the Arlington PDF model, in ascending order.
+ * Each version has a bit in a VersionMask (see getBit()).
+ */
+public enum PdfVersion {
+    PDF_1_0("1.0"),
+    PDF_1_1("1.1"),
+    PDF_1_2("1.2"),
+    PDF_1_3("1.3"),
+    PDF_1_4("1.4"),
+    PDF_1_5("1.5"),
+    PDF_1_6("1.6"),
+    PDF_1_7("1.7"),
+    PDF_2_0("2.0");
+
+    private static final PdfVersion[] all = values();
+
+    private final String text;
+    private final double value;
+
+    PdfVersion(String text) {
+        this.text = text;
+        this.value = Double.parseDouble(text);
+    }
+
+    /**
+     * @return the version as a number, e.g. 1.7
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return the bit of this version in a VersionMask
+     */
+    public int getBit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * @return the version as used in the Arlington model, e.g. "1.7"
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * @param text  a PDF version such as "1.7"
+     * @return the PDF version, or null if it is not one of the PDF versions
+     */
+    public static PdfVersion fromString(String text) {
+        for (PdfVersion v : all) {
+            if (v.text.equals(text)) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param value  a PDF version such as 1.7
+     * @return the PDF version, or null if it is not one of the PDF versions
+     */
+    public static PdfVersion fromValue(double value) {
+        for (PdfVersion v : all) {
+            if (v.value == value) {
+                return v;
+            }
+        }
+        return null;
+    }
+}
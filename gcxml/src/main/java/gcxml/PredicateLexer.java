@@ -0,0 +1,151 @@
+/*
+ * PredicateLexer.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lexer for Arlington predicates ("fn:..."), as described in
+ * INTERNAL_GRAMMAR.md. Token types and their regular expressions are the
+ * same, and are tried in the same order, as in scripts/arlington-fn-lex.py.
+ * SPACEs between tokens are ignored.
+ */
+public final class PredicateLexer {
+
+    /**
+     * Token types, in the order they are matched.
+     */
+    public enum TokenType {
+        FUNC_NAME    ("fn\\:[A-Z][a-zA-Z0-9]+\\("),
+        PDF_TRUE     ("(true)|(TRUE)"),
+        PDF_FALSE    ("(false)|(FALSE)"),
+        PDF_STRING   ("\\'[^\\']+\\'"),
+        MOD          ("mod"),
+        ELLIPSIS     ("\\.\\.\\."),
+        KEY_VALUE    ("@(\\*|[0-9]+|[0-9]+\\*|[a-zA-Z0-9_\\.\\-]+)"),
+        KEY_PATH     ("(parent::)?(([a-zA-Z]|[a-zA-Z][0-9]*|[0-9]*\\*|[0-9]*[a-zA-Z])[a-zA-Z0-9_\\.\\-]*::)+"),
+        KEY_NAME     ("([_a-zA-Z]|[_a-zA-Z][0-9]*|[0-9]*\\*|[0-9]*[_a-zA-Z])[a-zA-Z0-9_:\\.\\-]*"),
+        PDF_PATH     ("::"),
+        ARRAY_START  ("\\["),
+        ARRAY_END    ("\\]"),
+        EQ           ("=="),
+        NE           ("!="),
+        GE           (">="),
+        LE           ("<="),
+        LOGICAL_AND  ("\\&\\&"),
+        LOGICAL_OR   ("\\|\\|"),
+        GT           (">"),
+        LT           ("<"),
+        REAL         ("\\-?\\d+\\.\\d+"),
+        INTEGER      ("\\-?\\d+"),
+        PLUS         ("\\+"),
+        MINUS        ("-"),
+        TIMES        ("\\*"),
+        DIVIDE       ("/"),
+        LPAREN       ("\\("),
+        RPAREN       ("\\)"),
+        COMMA        ("\\,");
+
+        private final Pattern pattern;
+
+        TokenType(String regex) {
+            this.pattern = Pattern.compile(regex);
+        }
+    }
+
+    /**
+     * A single token. FUNC_NAME tokens include the opening bracket.
+     */
+    public static final class Token {
+        private final TokenType type;
+        private final String    text;
+        private final int       start;
+
+        private Token(TokenType type, String text, int start) {
+            this.type = type;
+            this.text = text;
+            this.start = start;
+        }
+
+        public TokenType getType() {
+            return type;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return offset of the first character of the token in the predicate
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return offset just past the last character of the token in the predicate
+         */
+        public int getEnd() {
+            return start + text.length();
+        }
+
+        @Override
+        public String toString() {
+            return type + "('" + text + "')";
+        }
+    }
+
+    private PredicateLexer() {
+    }
+
+    /**
+     * Splits an Arlington predicate into tokens.
+     *
+     * @param predicate  e.g. "fn:SinceVersion(1.5,stream)"
+     * @return the tokens
+     * @throws IllegalArgumentException if there is a character that cannot start any token
+     */
+    public static List<Token> tokenize(String predicate) {
+        ArrayList<Token> tokens = new ArrayList<>();
+        TokenType[] types = TokenType.values();
+        Matcher[] matchers = new Matcher[types.length];
+        int i = 0;
+        while (i < predicate.length()) {
+            if (predicate.charAt(i) == ' ') {
+                i++;
+                continue;
+            }
+            Token token = null;
+            for (int t = 0; (t < types.length) && (token == null); t++) {
+                if (matchers[t] == null) {
+                    matchers[t] = types[t].pattern.matcher(predicate);
+                }
+                Matcher m = matchers[t].region(i, predicate.length());
+                if (m.lookingAt() && (m.end() > i)) {
+                    token = new Token(types[t], m.group(), i);
+                }
+            }
+            if (token == null) {
+                throw new IllegalArgumentException("Unexpected '" + predicate.charAt(i) + "' at offset " + i + " in " + predicate);
+            }
+            tokens.add(token);
+            i = token.getEnd();
+        }
+        return tokens;
+    }
+}
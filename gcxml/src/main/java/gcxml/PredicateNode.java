@@ -0,0 +1,150 @@
+/*
+ * PredicateNode.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node of the abstract syntax tree of an Arlington predicate, as created
+ * by PredicateParser. Every node remembers its exact original text, and
+ * where each child is in that text, so that the exact original text of any
+ * sub-expression can be reproduced when a predicate is reduced.
+ * <p>
+ * Nodes are interned: all structurally identical sub-expressions in all
+ * parsed predicates (e.g. every "fn:SinceVersion(2.0)") are the same node.
+ * Nodes can therefore be compared, and results about them memoized, by
+ * identity. A node does not know its parent or where it is in a predicate.
+ */
+public final class PredicateNode {
+
+    /**
+     * Kinds of node
+     */
+    public enum Kind {
+        /** a predicate such as fn:SinceVersion(...) - children are the arguments */
+        FUNCTION,
+        /** a binary operator such as || or == - children are the 2 operands */
+        OPERATOR,
+        /** a bracketed expression (...) - the only child is the expression */
+        GROUP,
+        /** a PDF array [...] - children are the elements */
+        ARRAY,
+        /** a key, key value, path, number, string, etc. - no children */
+        VALUE
+    }
+
+    private final Kind                      kind;
+    private final String                    name;
+    private final PredicateLexer.TokenType  value_type;
+    private final List<PredicateNode>       children;
+    private final String                    text;
+    private final int[]                     child_starts;
+
+    /**
+     * @param kind  the kind of node
+     * @param name  predicate name (e.g. "fn:SinceVersion"), operator or value text
+     * @param value_type  token type of a VALUE node (for a path the type of its last token), otherwise null
+     * @param children  the child nodes
+     * @param text  the exact original text of this node
+     * @param child_starts  offset of each child in text
+     */
+    PredicateNode(Kind kind, String name, PredicateLexer.TokenType value_type, List<PredicateNode> children, String text, int[] child_starts) {
+        this.kind = kind;
+        this.name = name;
+        this.value_type = value_type;
+        this.children = Collections.unmodifiableList(children);
+        this.text = text;
+        this.child_starts = child_starts;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return predicate name without bracket (e.g. "fn:SinceVersion"),
+     *         operator (e.g. "||"), the value, "(" for a group or "[" for an array
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the token type of a VALUE node, otherwise null
+     */
+    public PredicateLexer.TokenType getValueType() {
+        return value_type;
+    }
+
+    /**
+     * @return the arguments of a predicate, operands of an operator, etc.
+     */
+    public List<PredicateNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * @param i  zero-based index
+     * @return a child node
+     */
+    public PredicateNode getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @param fn_name  a predicate name such as "fn:SinceVersion"
+     * @param args  the number of arguments
+     * @return true if this node is that predicate with that many arguments
+     */
+    public boolean isFunction(String fn_name, int args) {
+        return (kind == Kind.FUNCTION) && name.equals(fn_name) && (children.size() == args);
+    }
+
+    /**
+     * @return true if this node is a REAL number such as a PDF version "1.5"
+     */
+    public boolean isReal() {
+        return (kind == Kind.VALUE) && (value_type == PredicateLexer.TokenType.REAL);
+    }
+
+    /**
+     * @param i  zero-based index
+     * @return offset of the first character of a child in the text of this node
+     */
+    public int getChildStart(int i) {
+        return child_starts[i];
+    }
+
+    /**
+     * @param i  zero-based index
+     * @return offset just past the last character of a child in the text of this node
+     */
+    public int getChildEnd(int i) {
+        return child_starts[i] + children.get(i).text.length();
+    }
+
+    /**
+     * @return the exact original text of this node
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * PredicateParser.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import gcxml.PredicateLexer.Token;
+import gcxml.PredicateLexer.TokenType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recursive descent parser for Arlington predicates (see INTERNAL_GRAMMAR.md).
+ * <pre>
+ * expr           := comparison ( ("&amp;&amp;" | "||") comparison )*
+ * comparison     := additive ( ("==" | "!=" | "&gt;=" | "&lt;=" | "&gt;" | "&lt;") additive )?
+ * additive       := multiplicative ( ("+" | "-") multiplicative )*
+ * multiplicative := primary ( ("*" | "/" | "mod") primary )*
+ * primary        := "fn:Name(" [ expr ( "," expr )* ] ")"
+ *                 | "(" expr ")"
+ *                 | "[" primary* "]"
+ *                 | [ path ] key-name | [ path ] @key-value | number | 'string' | true | false
+ * </pre>
+ * The model requires expressions to be fully bracketed so the precedence
+ * above never has to decide anything for valid predicates. Each distinct
+ * predicate string is only parsed once and then cached, and all nodes are
+ * interned (hash-consed) so that structurally identical sub-expressions of
+ * all predicates are a single shared PredicateNode.
+ */
+public final class PredicateParser {
+    /**
+     * All predicates parsed so far: either a PredicateNode or the
+     * IllegalArgumentException explaining why it could not be parsed.
+     */
+    private static final ConcurrentHashMap<String, Object> cache = new ConcurrentHashMap<>();
+
+    /**
+     * All distinct nodes, by kind and text. The text of a node of a given
+     * kind fully determines its structure.
+     */
+    private static final ConcurrentHashMap<NodeKey, PredicateNode> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Interning key of a node
+     */
+    private static final class NodeKey {
+        private final PredicateNode.Kind kind;
+        private final String text;
+
+        private NodeKey(PredicateNode.Kind kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof NodeKey) && (((NodeKey) o).kind == kind) && ((NodeKey) o).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + text.hashCode();
+        }
+    }
+
+    /**
+     * A node together with where it is in the predicate being parsed
+     */
+    private static final class Span {
+        private final PredicateNode node;
+        private final int start;
+        private final int end;
+
+        private Span(PredicateNode node, int start, int end) {
+            this.node = node;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final String      source;
+    private final List<Token> tokens;
+    private int               pos = 0;
+
+    private PredicateParser(String source) {
+        this.source = source;
+        this.tokens = PredicateLexer.tokenize(source);
+    }
+
+    /**
+     * Parses an Arlington predicate, or returns the cached result if this
+     * exact predicate has been parsed before. Safe to call concurrently.
+     *
+     * @param predicate  e.g. "fn:IsRequired(fn:SinceVersion(2.0) || fn:NotStandard14Font())"
+     * @return the root of the abstract syntax tree
+     * @throws IllegalArgumentException if the predicate is not valid
+     */
+    public static PredicateNode parse(String predicate) {
+        Object ast = cache.computeIfAbsent(predicate, p -> {
+            try {
+                PredicateParser parser = new PredicateParser(p);
+                Span root = parser.expr();
+                if (parser.pos < parser.tokens.size()) {
+                    throw parser.error("Unexpected");
+                }
+                return root.node;
+            }
+            catch (IllegalArgumentException ex) {
+                return ex;
+            }
+        });
+        if (ast instanceof IllegalArgumentException) {
+            throw new IllegalArgumentException(((IllegalArgumentException) ast).getMessage());
+        }
+        return (PredicateNode) ast;
+    }
+
+    /**
+     * Forgets all predicates parsed and nodes interned so far, e.g. before
+     * the latest TSV file set is reloaded. Must not be called while
+     * predicates are being parsed or folded, and any memo keyed by node
+     * (see PartialEvaluator.clearCaches()) must be cleared as well.
+     */
+    public static void clearCaches() {
+        cache.clear();
+        nodes.clear();
+    }
+
+    /**
+     * @return number of distinct predicates parsed so far
+     */
+    public static int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return number of distinct (interned) nodes of all predicates parsed so far
+     */
+    public static int getNodeCount() {
+        return nodes.size();
+    }
+
+    /**
+     * Parses every predicate in a set of Arlington fields up-front, so that
+     * all of them share interned nodes before any are reduced. Complex fields
+     * are split into their elements and items (see FieldScanner). Predicates
+     * that are not valid are remembered as such and reported when used.
+     *
+     * @param fields  Arlington fields, e.g. all distinct fields of a TSV file set
+     * @return the number of predicates found
+     */
+    public static int parseAll(String[] fields) {
+        int count = 0;
+        FieldScanner items = new FieldScanner("");
+        for (String field : fields) {
+            if ((field == null) || !field.contains("fn:")) {
+                continue;
+            }
+            FieldScanner groups = new FieldScanner(field);
+            while (groups.nextGroup()) {
+                if (groups.isBracketed()) {
+                    items.reset(field, groups.getStart() + 1, groups.getEnd() - 1);
+                    while (items.nextItem()) {
+                        if (items.isPredicate()) {
+                            count += tryParse(items.token());
+                        }
+                    }
+                }
+                else if (groups.isPredicate()) {
+                    count += tryParse(groups.token());
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int tryParse(String predicate) {
+        try {
+            parse(predicate);
+        }
+        catch (IllegalArgumentException ex) {
+            // reported when the predicate is used
+        }
+        return 1;
+    }
+
+    private Span expr() {
+        Span left = comparison();
+        while (peekIs(TokenType.LOGICAL_AND) || peekIs(TokenType.LOGICAL_OR)) {
+            left = operator(left, next(), comparison());
+        }
+        return left;
+    }
+
+    private Span comparison() {
+        Span left = additive();
+        if (peekIs(TokenType.EQ) || peekIs(TokenType.NE) || peekIs(TokenType.GE)
+            || peekIs(TokenType.LE) || peekIs(TokenType.GT) || peekIs(TokenType.LT)) {
+            left = operator(left, next(), additive());
+        }
+        return left;
+    }
+
+    private Span additive() {
+        Span left = multiplicative();
+        while (peekIs(TokenType.PLUS) || peekIs(TokenType.MINUS)) {
+            left = operator(left, next(), multiplicative());
+        }
+        return left;
+    }
+
+    private Span multiplicative() {
+        Span left = primary();
+        // "*" by itself lexes as a (wildcard) key name
+        while (peekIs(TokenType.TIMES) || peekIs(TokenType.DIVIDE) || peekIs(TokenType.MOD)
+               || (peekIs(TokenType.KEY_NAME) && tokens.get(pos).getText().equals("*"))) {
+            left = operator(left, next(), primary());
+        }
+        return left;
+    }
+
+    private Span primary() {
+        if (pos >= tokens.size()) {
+            throw error("Missing operand");
+        }
+        Token t = next();
+        ArrayList<Span> children = new ArrayList<>();
+        switch (t.getType()) {
+            case FUNC_NAME: {
+                if (!peekIs(TokenType.RPAREN)) {
+                    children.add(expr());
+                    while (peekIs(TokenType.COMMA)) {
+                        next();
+                        children.add(expr());
+                    }
+                }
+                Token close = expect(TokenType.RPAREN);
+                String name = t.getText().substring(0, t.getText().length() - 1);
+                return intern(PredicateNode.Kind.FUNCTION, name, null, children, t.getStart(), close.getEnd());
+            }
+            case LPAREN: {
+                children.add(expr());
+                Token close = expect(TokenType.RPAREN);
+                return intern(PredicateNode.Kind.GROUP, "(", null, children, t.getStart(), close.getEnd());
+            }
+            case ARRAY_START: {
+                while (!peekIs(TokenType.ARRAY_END)) {
+                    children.add(primary());
+                }
+                Token close = expect(TokenType.ARRAY_END);
+                return intern(PredicateNode.Kind.ARRAY, "[", null, children, t.getStart(), close.getEnd());
+            }
+            case KEY_PATH: {
+                // path followed directly by a key name or key value, e.g. "parent::@Width".
+                // Array indices in a path lex separately, e.g. "parent::1" or "Reference::0::@Key"
+                Token last = t;
+                while ((pos < tokens.size()) && (tokens.get(pos).getStart() == last.getEnd())
+                       && (peekIs(TokenType.PDF_PATH) || peekIs(TokenType.KEY_PATH) || (last.getText().endsWith("::")
+                           && (peekIs(TokenType.KEY_NAME) || peekIs(TokenType.KEY_VALUE) || peekIs(TokenType.INTEGER))))) {
+                    last = next();
+                }
+                return intern(PredicateNode.Kind.VALUE, source.substring(t.getStart(), last.getEnd()),
+                              last.getType(), children, t.getStart(), last.getEnd());
+            }
+            case KEY_VALUE: {
+                // value of a repeating array element, e.g. "@0*", lexes as "@0" then "*"
+                Token last = t;
+                if ((peekIs(TokenType.KEY_NAME) || peekIs(TokenType.TIMES)) && tokens.get(pos).getText().equals("*")
+                    && (tokens.get(pos).getStart() == t.getEnd())) {
+                    last = next();
+                }
+                return intern(PredicateNode.Kind.VALUE, source.substring(t.getStart(), last.getEnd()),
+                              t.getType(), children, t.getStart(), last.getEnd());
+            }
+            case KEY_NAME:
+            case REAL:
+            case INTEGER:
+            case PDF_TRUE:
+            case PDF_FALSE:
+            case PDF_STRING:
+            case ELLIPSIS:
+            case PDF_PATH:
+            case TIMES:
+                return intern(PredicateNode.Kind.VALUE, t.getText(), t.getType(), children, t.getStart(), t.getEnd());
+            default:
+                pos--;
+                throw error("Unexpected");
+        }
+    }
+
+    private Span operator(Span left, Token op, Span right) {
+        ArrayList<Span> operands = new ArrayList<>(2);
+        operands.add(left);
+        operands.add(right);
+        return intern(PredicateNode.Kind.OPERATOR, op.getText(), null, operands, left.start, right.end);
+    }
+
+    /**
+     * Returns the shared node for a sub-expression of the predicate being
+     * parsed, creating it if this is the first time it has been seen.
+     *
+     * @param start  offset of the first character of the node in the predicate
+     * @param end  offset just past the last character of the node in the predicate
+     */
+    private Span intern(PredicateNode.Kind kind, String name, TokenType value_type, List<Span> children, int start, int end) {
+        String text = source.substring(start, end);
+        PredicateNode node = nodes.get(new NodeKey(kind, text));
+        if (node == null) {
+            ArrayList<PredicateNode> child_nodes = new ArrayList<>(children.size());
+            int[] child_starts = new int[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                child_nodes.add(children.get(i).node);
+                child_starts[i] = children.get(i).start - start;
+            }
+            PredicateNode created = new PredicateNode(kind, name, value_type, child_nodes, text, child_starts);
+            node = nodes.putIfAbsent(new NodeKey(kind, text), created);
+            if (node == null) {
+                node = created;
+            }
+        }
+        return new Span(node, start, end);
+    }
+
+    private boolean peekIs(TokenType type) {
+        return (pos < tokens.size()) && (tokens.get(pos).getType() == type);
+    }
+
+    private Token next() {
+        return tokens.get(pos++);
+    }
+
+    private Token expect(TokenType type) {
+        if (!peekIs(type)) {
+            throw error("Expected " + type + " but found");
+        }
+        return next();
+    }
+
+    private IllegalArgumentException error(String what) {
+        String found = (pos < tokens.size()) ? ("'" + tokens.get(pos).getText() + "' at offset " + tokens.get(pos).getStart()) : "end";
+        return new IllegalArgumentException(what + " " + found + " in " + source);
+    }
+}
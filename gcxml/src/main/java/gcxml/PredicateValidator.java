@@ -0,0 +1,418 @@
+/*
+ * PredicateValidator.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Static checks of every predicate ("fn:...") of an Arlington TSV file set,
+ * similar to the validate_fn_* checks of scripts/arlington.py:
+ * - the predicate can be parsed
+ * - each predicate is a known one, with the right number of arguments
+ * - arguments are of the right kind (PDF version, bit position, key, ...)
+ * - keys referenced by "@Key" or by predicates such as fn:IsPresent(Key)
+ *   exist in the same object
+ * Checks that only depend on a predicate are done once per distinct
+ * (interned) predicate, only the key checks are done per object.
+ */
+public final class PredicateValidator {
+
+    /**
+     * Kinds of predicate argument
+     */
+    private enum Arg {
+        /** anything, e.g. a condition */
+        ANY,
+        /** a PDF version such as 1.7 */
+        VERSION,
+        /** an extension name such as ADBE_Extn3 */
+        NAME,
+        /** a key name or array index of this object, or a path to one */
+        KEY,
+        /** the value of a key ("@Key"), or a path to one */
+        KEY_VALUE,
+        /** a KEY, or a predicate such as fn:PageProperty(...) that gives an array */
+        ARRAY,
+        /** an integer */
+        INTEGER,
+        /** a bit position 1-32 */
+        BIT
+    }
+
+    /**
+     * Number and kinds of arguments of a predicate. Arguments beyond those
+     * listed are ANY.
+     */
+    private static final class Signature {
+        private final int min_args;
+        private final int max_args;
+        private final Arg[] args;
+
+        private Signature(int min_args, int max_args, Arg... args) {
+            this.min_args = min_args;
+            this.max_args = max_args;
+            this.args = args;
+        }
+    }
+
+    /**
+     * All Arlington predicates, see scripts/arlington.py
+     */
+    private static final Map<String, Signature> signatures = new HashMap<>();
+
+    static {
+        Signature none = new Signature(0, 0);
+        for (String fn : new String[] { "fn:AlwaysUnencrypted", "fn:FileSize", "fn:FontHasLatinChars",
+                "fn:ImageIsStructContentItem", "fn:ImplementationDependent", "fn:IsAssociatedFile",
+                "fn:IsEncryptedWrapper", "fn:IsHexString", "fn:IsPDFTagged", "fn:KeyNameIsColorant",
+                "fn:NoCycle", "fn:NotStandard14Font", "fn:NumberOfPages", "fn:PageContainsStructContentItems" }) {
+            signatures.put(fn, none);
+        }
+        Signature version = new Signature(1, 2, Arg.VERSION);
+        for (String fn : new String[] { "fn:BeforeVersion", "fn:Deprecated", "fn:IsPDFVersion", "fn:SinceVersion" }) {
+            signatures.put(fn, version);
+        }
+        Signature condition = new Signature(0, 1);
+        for (String fn : new String[] { "fn:Ignore", "fn:IsMeaningful", "fn:IsRequired", "fn:MustBeDirect", "fn:MustBeIndirect" }) {
+            signatures.put(fn, condition);
+        }
+        Signature anything = new Signature(1, Integer.MAX_VALUE);
+        for (String fn : new String[] { "fn:Eval", "fn:Not", "fn:IsLastInNumberFormatArray", "fn:StreamLength" }) {
+            signatures.put(fn, anything);
+        }
+        signatures.put("fn:ArrayLength", new Signature(1, 1, Arg.ARRAY));
+        signatures.put("fn:ArraySortAscending", new Signature(2, 2, Arg.KEY, Arg.INTEGER));
+        signatures.put("fn:BitClear", new Signature(1, 1, Arg.BIT));
+        signatures.put("fn:BitSet", new Signature(1, 1, Arg.BIT));
+        signatures.put("fn:BitsClear", new Signature(2, 2, Arg.BIT, Arg.BIT));
+        signatures.put("fn:BitsSet", new Signature(2, 2, Arg.BIT, Arg.BIT));
+        signatures.put("fn:Contains", new Signature(2, 2, Arg.KEY_VALUE));
+        signatures.put("fn:DefaultValue", new Signature(2, 2));
+        signatures.put("fn:Extension", new Signature(1, 2, Arg.NAME));
+        signatures.put("fn:HasProcessColorants", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:HasSpotColorants", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:InKeyMap", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:InNameTree", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:IsFieldName", new Signature(1, 1));
+        signatures.put("fn:IsPresent", new Signature(1, 2));
+        signatures.put("fn:PageProperty", new Signature(2, 2, Arg.KEY_VALUE, Arg.KEY));
+        signatures.put("fn:RectHeight", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:RectWidth", new Signature(1, 1, Arg.KEY));
+        signatures.put("fn:RequiredValue", new Signature(2, 2));
+        signatures.put("fn:StringLength", new Signature(1, 2, Arg.KEY));
+    }
+
+    /**
+     * Predicates whose first argument, if a key name without a path, is a
+     * key of the same object. fn:Not(fn:IsPresent(Key)) is allowed for keys
+     * that are not in the object, as it says they must not be there.
+     */
+    private static final Set<String> key_predicates = Set.of(
+            "fn:ArrayLength", "fn:ArraySortAscending", "fn:IsPresent", "fn:RectHeight", "fn:RectWidth", "fn:StringLength");
+
+    /**
+     * Column names, for the report
+     */
+    private static final String[] column_names = { "Key", "Type", "SinceVersion", "DeprecatedIn", "Required",
+            "IndirectReference", "Inheritable", "DefaultValue", "PossibleValues", "SpecialCase", "Link", "Note" };
+
+    /**
+     * The result of checking a single predicate, independent of the object it is in
+     */
+    private static final class Checked {
+        private final List<String> problems = new ArrayList<>();
+        private final Set<String> keys = new HashSet<>();
+    }
+
+    /**
+     * Checked predicates, by (interned) root node
+     */
+    private final ConcurrentHashMap<PredicateNode, Checked> checked = new ConcurrentHashMap<>();
+
+    private final int thread_count;
+
+    /**
+     * @param thread_count  number of objects to check concurrently (1 = serial)
+     */
+    public PredicateValidator(int thread_count) {
+        this.thread_count = thread_count;
+    }
+
+    /**
+     * Checks all predicates of a TSV file set and prints a report of the
+     * problems found, one line per problem, in object and row order.
+     *
+     * @param model  the Arlington TSV file set, e.g. tsv/latest
+     * @return the number of problems found
+     */
+    public int validate(ArlingtonModel model) {
+        long start = System.currentTimeMillis();
+        List<ArlingtonModel.TSVObject> objs = model.getObjects();
+        String[] reports = new String[objs.size()];
+        int[] predicates = new int[objs.size()];
+        int[] problems = new int[objs.size()];
+        if (thread_count == 1) {
+            for (int i = 0; i < objs.size(); i++) {
+                validateObject(objs.get(i), i, reports, predicates, problems);
+            }
+        }
+        else {
+            ForkJoinPool pool = new ForkJoinPool(thread_count);
+            try {
+                pool.submit(() -> IntStream.range(0, objs.size()).parallel()
+                        .forEach(i -> validateObject(objs.get(i), i, reports, predicates, problems))).get();
+            }
+            catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(PredicateValidator.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        for (String r : reports) {
+            if (r != null) {
+                report.append(r);
+            }
+        }
+        System.out.print(report);
+        int problem_count = IntStream.of(problems).sum();
+        System.out.println("Checked " + IntStream.of(predicates).sum() + " predicates (" + checked.size() + " distinct) in "
+                + objs.size() + " objects: " + problem_count + " problem(s) in " + (System.currentTimeMillis() - start) + " ms");
+        return problem_count;
+    }
+
+    /**
+     * Checks the predicates of one object. The results are stored at index i
+     * so that objects can be checked concurrently.
+     */
+    private void validateObject(ArlingtonModel.TSVObject obj, int i, String[] reports, int[] predicates, int[] problems) {
+        Set<String> keys = new HashSet<>();
+        for (int row = 0; row < obj.getRowCount(); row++) {
+            keys.add(obj.getKey(row));
+        }
+
+        StringBuilder report = new StringBuilder();
+        FieldScanner groups = new FieldScanner("");
+        FieldScanner items = new FieldScanner("");
+        for (int row = 0; row < obj.getRowCount(); row++) {
+            for (int col = ArlingtonModel.TYPE; (col < obj.getFieldCount(row)) && (col < ArlingtonModel.NOTE); col++) {
+                String field = obj.getField(row, col);
+                if ((field == null) || !field.contains("fn:")) {
+                    continue;
+                }
+                groups.reset(field, 0, field.length());
+                while (groups.nextGroup()) {
+                    if (groups.isBracketed()) {
+                        items.reset(field, groups.getStart() + 1, groups.getEnd() - 1);
+                        while (items.nextItem()) {
+                            if (items.isPredicate()) {
+                                predicates[i]++;
+                                problems[i] += validatePredicate(items.token(), keys, obj, row, col, report);
+                            }
+                        }
+                    }
+                    else if (groups.isPredicate()) {
+                        predicates[i]++;
+                        problems[i] += validatePredicate(groups.token(), keys, obj, row, col, report);
+                    }
+                }
+            }
+        }
+        reports[i] = (report.length() > 0) ? report.toString() : null;
+    }
+
+    /**
+     * @return the number of problems reported for the predicate
+     */
+    private int validatePredicate(String predicate, Set<String> keys, ArlingtonModel.TSVObject obj, int row, int col, StringBuilder report) {
+        String where = "Error: " + obj.getName() + " " + obj.getKey(row) + " (" + column_names[col] + "): ";
+        PredicateNode root;
+        try {
+            root = PredicateParser.parse(predicate);
+        }
+        catch (IllegalArgumentException ex) {
+            report.append(where).append(ex.getMessage()).append(" in ").append(predicate).append('\n');
+            return 1;
+        }
+
+        Checked c = checked.computeIfAbsent(root, r -> {
+            Checked result = new Checked();
+            check(r, result);
+            return result;
+        });
+        int count = 0;
+        for (String problem : c.problems) {
+            report.append(where).append(problem).append(" in ").append(predicate).append('\n');
+            count++;
+        }
+        for (String key : c.keys) {
+            if (!hasKey(keys, key)) {
+                report.append(where).append("no key ").append(key).append(" in ").append(predicate).append('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks a node and all of its children.
+     */
+    private static void check(PredicateNode node, Checked result) {
+        check(node, false, result);
+    }
+
+    /**
+     * @param negated  true if node is the argument of fn:Not
+     */
+    private static void check(PredicateNode node, boolean negated, Checked result) {
+        if ((node.getKind() == PredicateNode.Kind.VALUE) && (node.getValueType() == PredicateLexer.TokenType.KEY_VALUE)
+            && isLocal(node)) {
+            result.keys.add(node.getText().substring(1));
+        }
+        if (node.getKind() == PredicateNode.Kind.FUNCTION) {
+            checkFunction(node, result.problems);
+            if (key_predicates.contains(node.getName()) && !node.getChildren().isEmpty()
+                && !(negated && node.getName().equals("fn:IsPresent"))) {
+                PredicateNode arg = node.getChild(0);
+                if ((arg.getKind() == PredicateNode.Kind.VALUE) && (arg.getValueType() == PredicateLexer.TokenType.KEY_NAME)
+                    && isLocal(arg)) {
+                    result.keys.add(arg.getText());
+                }
+            }
+        }
+        boolean not = node.isFunction("fn:Not", 1);
+        for (PredicateNode child : node.getChildren()) {
+            check(child, not, result);
+        }
+    }
+
+    /**
+     * Checks the number and kinds of arguments of a predicate.
+     */
+    private static void checkFunction(PredicateNode fn, List<String> problems) {
+        Signature sig = signatures.get(fn.getName());
+        if (sig == null) {
+            problems.add("unknown predicate " + fn.getName());
+            return;
+        }
+        int args = fn.getChildren().size();
+        if ((args < sig.min_args) || (args > sig.max_args)) {
+            String expected = (sig.min_args == sig.max_args) ? String.valueOf(sig.min_args)
+                    : (sig.max_args == Integer.MAX_VALUE) ? "at least " + sig.min_args
+                    : sig.min_args + " to " + sig.max_args;
+            problems.add(fn.getName() + " has " + args + " argument(s), expected " + expected);
+            return;
+        }
+        for (int i = 0; (i < sig.args.length) && (i < args); i++) {
+            if (!isArg(fn.getChild(i), sig.args[i])) {
+                problems.add(fn.getName() + " argument " + (i + 1) + " (" + fn.getChild(i).getText() + ") is not " + describe(sig.args[i]));
+            }
+        }
+        if ((sig.args.length == 2) && (sig.args[0] == Arg.BIT) && (args == 2) && problems.isEmpty()
+            && (Integer.parseInt(fn.getChild(0).getText()) >= Integer.parseInt(fn.getChild(1).getText()))) {
+            problems.add(fn.getName() + " bit range " + fn.getChild(0).getText() + " to " + fn.getChild(1).getText() + " is empty");
+        }
+    }
+
+    private static boolean isArg(PredicateNode node, Arg arg) {
+        if (arg == Arg.ANY) {
+            return true;
+        }
+        if (node.getKind() != PredicateNode.Kind.VALUE) {
+            return (arg == Arg.ARRAY) && (node.getKind() == PredicateNode.Kind.FUNCTION);
+        }
+        if (arg == Arg.ARRAY) {
+            arg = Arg.KEY;
+        }
+        PredicateLexer.TokenType type = node.getValueType();
+        switch (arg) {
+            case VERSION:
+                return node.isReal() && (PdfVersion.fromString(node.getText()) != null);
+            case NAME:
+                return (type == PredicateLexer.TokenType.KEY_NAME) && isLocal(node);
+            case KEY:
+                return (type == PredicateLexer.TokenType.KEY_NAME) || (type == PredicateLexer.TokenType.INTEGER)
+                    || ((type == PredicateLexer.TokenType.KEY_VALUE) && !isLocal(node));
+            case KEY_VALUE:
+                return type == PredicateLexer.TokenType.KEY_VALUE;
+            case INTEGER:
+                return type == PredicateLexer.TokenType.INTEGER;
+            case BIT: {
+                if (type != PredicateLexer.TokenType.INTEGER) {
+                    return false;
+                }
+                int bit = Integer.parseInt(node.getText());
+                return (bit >= 1) && (bit <= 32);
+            }
+            default:
+                return true;
+        }
+    }
+
+    private static String describe(Arg arg) {
+        switch (arg) {
+            case VERSION:   return "a PDF version";
+            case NAME:      return "a name";
+            case KEY:       return "a key name or array index";
+            case ARRAY:     return "a key name, array index or predicate";
+            case KEY_VALUE: return "a key value (@Key)";
+            case INTEGER:   return "an integer";
+            case BIT:       return "a bit position 1-32";
+            default:        return "valid";
+        }
+    }
+
+    /**
+     * @return true if a key or key value has no path, i.e. refers to this object
+     */
+    private static boolean isLocal(PredicateNode node) {
+        return !node.getText().contains("::");
+    }
+
+    /**
+     * @param keys  the keys of an object
+     * @param key  a key name or array index, possibly a wildcard
+     * @return true if the object has the key
+     */
+    private static boolean hasKey(Set<String> keys, String key) {
+        if (keys.contains(key) || keys.contains("*") || key.equals("*")) {
+            return true;
+        }
+        if (!key.isEmpty() && key.chars().allMatch(Character::isDigit)) {
+            // array index: within a repeating group of elements ("0*", "1*", ...)
+            int index = Integer.parseInt(key);
+            for (String k : keys) {
+                if ((k.length() > 1) && k.endsWith("*") && k.chars().limit(k.length() - 1).allMatch(Character::isDigit)
+                    && (Integer.parseInt(k.substring(0, k.length() - 1)) <= index)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * ReductionCache.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded memo cache of the results of reducing an Arlington field for
+ * every PDF version. The same Links, PossibleValues and Type fields repeat
+ * verbatim across many TSV files (and the XML and TSV outputs reduce the
+ * same fields), so each distinct field only needs to be reduced once per run.
+ * <p>
+ * The first time a field is seen it is analysed for the PDF versions at
+ * which its reduction changes (see VersionBreakpoints). It is then reduced
+ * just once for each group of PDF versions that reduce the same way, and
+ * the results for all PDF versions are cached together. Safe to use
+ * concurrently. Cached results must not be modified by callers.
+ *
+ * @param <V> the reduced result
+ */
+public final class ReductionCache<V> {
+
+    /**
+     * A reducer whose results are cached. Must only depend on its arguments.
+     *
+     * @param <V> the reduced result
+     */
+    public interface Reducer<V> {
+        V reduce(String str, PdfVersion version);
+    }
+
+    private final String                            name;
+    private final int                               capacity;
+    private final Reducer<V>                        reducer;
+    /** the results of reducing each field, indexed by PdfVersion ordinal */
+    private final ConcurrentHashMap<String, List<V>> cache;
+    private final LongAdder                         hits = new LongAdder();
+    private final LongAdder                         misses = new LongAdder();
+    private final LongAdder                         reductions = new LongAdder();
+
+    /**
+     * @param name  name of the reducer, used when reporting
+     * @param capacity  maximum number of cached fields
+     * @param reducer  the reducer
+     */
+    public ReductionCache(String name, int capacity, Reducer<V> reducer) {
+        this.name = name;
+        this.capacity = capacity;
+        this.reducer = reducer;
+        this.cache = new ConcurrentHashMap<>(Math.min(capacity, 4096));
+    }
+
+    /**
+     * Returns the cached result of reducing a field for a PDF version, or
+     * reduces it now (for all PDF versions).
+     *
+     * @param str  an Arlington field
+     * @param version  the PDF version being targeted
+     * @return the reduced field
+     */
+    public V get(String str, PdfVersion version) {
+        return getResults(str).get(version.ordinal());
+    }
+
+    /**
+     * Returns the cached results of a field, or reduces it now. When the
+     * cache is full, roughly a quarter of the cached fields are dropped to
+     * make room. They are dropped arbitrarily (in hash table iteration
+     * order), not in least recently used order.
+     */
+    private List<V> getResults(String str) {
+        List<V> results = cache.get(str);
+        if (results != null) {
+            hits.increment();
+            return results;
+        }
+        misses.increment();
+
+        double[] breakpoints = VersionBreakpoints.find(str);
+        int[] rep = VersionBreakpoints.representatives(breakpoints, TSVHandler.pdf_version);
+        PdfVersion[] versions = PdfVersion.values();
+        ArrayList<V> reduced = new ArrayList<>(versions.length);
+        for (int i = 0; i < versions.length; i++) {
+            if (rep[i] == i) {
+                reductions.increment();
+                reduced.add(reducer.reduce(str, versions[i]));
+            }
+            else {
+                reduced.add(reduced.get(rep[i]));
+            }
+        }
+        results = Collections.unmodifiableList(reduced);
+
+        if (cache.size() >= capacity) {
+            int keep = capacity - capacity / 4;
+            Iterator<String> it = cache.keySet().iterator();
+            while (it.hasNext() && (cache.size() > keep)) {
+                it.next();
+                it.remove();
+            }
+        }
+        List<V> previous = cache.putIfAbsent(str, results);
+        return (previous != null) ? previous : results;
+    }
+
+    /**
+     * @return number of lookups so far
+     */
+    public long getLookupCount() {
+        return hits.sum() + misses.sum();
+    }
+
+    /**
+     * @return fraction of lookups answered from the cache (0.0 to 1.0)
+     */
+    public double getHitRate() {
+        long lookups = getLookupCount();
+        return (lookups > 0) ? (double)hits.sum() / lookups : 0.0;
+    }
+
+    /**
+     * @return number of times the reducer actually had to be called
+     */
+    public long getReductionCount() {
+        return reductions.sum();
+    }
+
+    /**
+     * @return e.g. "reduceComplexForVersion: 38143 lookups, 84.3% hits, 5978 cached, 6254 reductions"
+     */
+    @Override
+    public String toString() {
+        return String.format("%s: %d lookups, %.1f%% hits, %d cached, %d reductions",
+                name, getLookupCount(), 100.0 * getHitRate(), cache.size(), getReductionCount());
+    }
+}
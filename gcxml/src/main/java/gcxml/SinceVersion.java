@@ -0,0 +1,214 @@
+/*
+ * SinceVersion.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An Arlington "SinceVersion" field, parsed once into its parts. The forms
+ * used by the Arlington model are:
+ * - x.y: core PDF since x.y
+ * - fn:Extension(AAA): extension AAA, in any PDF version
+ * - fn:Extension(AAA,x.y): extension AAA, since PDF x.y
+ * - fn:Eval(fn:Extension(AAA,x.y) || a.b): extension AAA since PDF x.y, or core PDF since a.b
+ * Any other predicate is kept as it is (see isRecognised()).
+ */
+public final class SinceVersion {
+
+    /**
+     * Parsed SinceVersion fields. There are only a few dozen distinct ones.
+     */
+    private static final ConcurrentHashMap<String, SinceVersion> parsed = new ConcurrentHashMap<>();
+
+    private final String    text;
+    private final boolean   recognised;
+    private final String    extension;
+    private final double    extension_version;
+    private final double    core_version;
+
+    private SinceVersion(String text, boolean recognised, String extension, double extension_version, double core_version) {
+        this.text = text;
+        this.recognised = recognised;
+        this.extension = extension;
+        this.extension_version = extension_version;
+        this.core_version = core_version;
+    }
+
+    /**
+     * Forgets all parsed SinceVersion fields, e.g. before the latest TSV
+     * file set is reloaded.
+     */
+    public static void clearCache() {
+        parsed.clear();
+    }
+
+    /**
+     * @param sincever  the SinceVersion field from an Arlington TSV file
+     * @return the parsed field (shared)
+     */
+    public static SinceVersion parse(String sincever) {
+        SinceVersion sv = parsed.get(sincever);
+        if (sv == null) {
+            sv = new Scanner(sincever).parse();
+            parsed.putIfAbsent(sincever, sv);
+        }
+        return sv;
+    }
+
+    /**
+     * @return the field as it is in the TSV file
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return true if the field is a predicate ("fn:...")
+     */
+    public boolean isPredicate() {
+        return text.startsWith("fn:");
+    }
+
+    /**
+     * @return true if the field is one of the forms listed for this class
+     */
+    public boolean isRecognised() {
+        return recognised;
+    }
+
+    /**
+     * @return the extension name (e.g. "ADBE_Extn3") or null if none
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return the PDF version the extension applies from, or NaN if none
+     */
+    public double getExtensionVersion() {
+        return extension_version;
+    }
+
+    /**
+     * @return the core PDF version, or NaN if none
+     */
+    public double getCoreVersion() {
+        return core_version;
+    }
+
+    /**
+     * @return the lowest PDF version in the field, or NaN if there is none
+     *         (e.g. fn:Extension(AAA)) or the field is not recognised
+     */
+    public double getLowestVersion() {
+        if (Double.isNaN(extension_version)) {
+            return core_version;
+        }
+        return Double.isNaN(core_version) ? extension_version : Math.min(extension_version, core_version);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Hand-written recursive descent over the few SinceVersion forms
+     */
+    private static final class Scanner {
+        private final String s;
+        private int pos = 0;
+
+        private Scanner(String s) {
+            this.s = s;
+        }
+
+        private SinceVersion parse() {
+            SinceVersion unrecognised = new SinceVersion(s, false, null, Double.NaN, Double.NaN);
+            if (!s.startsWith("fn:")) {
+                double v = version();
+                return ((pos == s.length()) && !Double.isNaN(v)) ? new SinceVersion(s, true, null, Double.NaN, v) : unrecognised;
+            }
+            if (accept("fn:Eval(")) {
+                if (!accept("fn:Extension(")) {
+                    return unrecognised;
+                }
+                String name = name();
+                if ((name == null) || !accept(",")) {
+                    return unrecognised;
+                }
+                double extn_ver = version();
+                if (Double.isNaN(extn_ver) || !accept(") || ")) {
+                    return unrecognised;
+                }
+                double core_ver = version();
+                if (Double.isNaN(core_ver) || !accept(")") || (pos != s.length())) {
+                    return unrecognised;
+                }
+                return new SinceVersion(s, true, name, extn_ver, core_ver);
+            }
+            if (accept("fn:Extension(")) {
+                String name = name();
+                if (name == null) {
+                    return unrecognised;
+                }
+                double extn_ver = Double.NaN;
+                if (accept(",")) {
+                    extn_ver = version();
+                    if (Double.isNaN(extn_ver)) {
+                        return unrecognised;
+                    }
+                }
+                if (!accept(")") || (pos != s.length())) {
+                    return unrecognised;
+                }
+                return new SinceVersion(s, true, name, extn_ver, Double.NaN);
+            }
+            return unrecognised;
+        }
+
+        private boolean accept(String token) {
+            if (s.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return an extension name ([A-Za-z0-9_]+) or null
+         */
+        private String name() {
+            int start = pos;
+            while ((pos < s.length()) && (Character.isLetterOrDigit(s.charAt(pos)) || (s.charAt(pos) == '_'))) {
+                pos++;
+            }
+            return (pos > start) ? s.substring(start, pos) : null;
+        }
+
+        /**
+         * @return a PDF version (digit "." digit) or NaN
+         */
+        private double version() {
+            if ((pos + 3 <= s.length()) && Character.isDigit(s.charAt(pos)) && (s.charAt(pos + 1) == '.')
+                && Character.isDigit(s.charAt(pos + 2))) {
+                pos += 3;
+                return Double.parseDouble(s.substring(pos - 3, pos));
+            }
+            return Double.NaN;
+        }
+    }
+}
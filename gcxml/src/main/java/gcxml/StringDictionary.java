@@ -0,0 +1,133 @@
+/*
+ * StringDictionary.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.Arrays;
+
+/**
+ * Assigns a dense int code to every distinct string value, so that the
+ * heavily repeated TSV field values (e.g. "name", "FALSE", "[]") are held
+ * only once. Lookups compare characters, so a CharSequence view over a
+ * mapped TSV file is only materialised as a String the first time that
+ * value is seen. Not thread-safe.
+ */
+public final class StringDictionary {
+    /**
+     * All distinct values, by code
+     */
+    private String[] values = new String[1024];
+
+    /**
+     * Number of distinct values
+     */
+    private int size = 0;
+
+    /**
+     * Open addressing hash table of code + 1 (0 = empty slot)
+     */
+    private int[] table = new int[2048];
+
+    /**
+     * Returns the code of a value, adding the value if it is new.
+     *
+     * @param value  any character sequence (e.g. a TSV field)
+     * @return the code of the value
+     */
+    public int intern(CharSequence value) {
+        int h = hash(value);
+        int mask = table.length - 1;
+        for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+            int code = table[slot] - 1;
+            if (code < 0) {
+                break;
+            }
+            if (contentEquals(values[code], value)) {
+                return code;
+            }
+        }
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value.toString();
+        if (2 * (size + 1) > table.length) {
+            rehash(table.length * 2);
+        }
+        insert(h, size);
+        return size++;
+    }
+
+    /**
+     * @param code  a code returned by intern()
+     * @return the value
+     */
+    public String get(int code) {
+        return values[code];
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all values, indexed by code
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int code = 0; code < size; code++) {
+            insert(hash(values[code]), code);
+        }
+    }
+
+    private void insert(int h, int code) {
+        int mask = table.length - 1;
+        int slot = h & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = code + 1;
+    }
+
+    /**
+     * @return same as String.hashCode() but for any CharSequence, spread
+     *         over the low bits used to index the hash table
+     */
+    private static int hash(CharSequence value) {
+        int h = 0;
+        for (int i = 0; i < value.length(); i++) {
+            h = 31 * h + value.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean contentEquals(String s, CharSequence cs) {
+        if (s.length() != cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != cs.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
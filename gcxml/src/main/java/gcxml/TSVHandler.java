@@ -14,16 +14,23 @@
  */
 package gcxml;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.*;
 
 /**
  * Handles Arlington TSV data. In particular it understands the PDF version
@@ -38,13 +45,24 @@ import java.util.regex.*;
  * for PDF 1.0 to 1.4 inclusive.
   */
 public class TSVHandler {
+
+    /**
+     * Receives the rows of a TSV file
+     */
+    public interface RowSink {
+        /**
+         * @param fields  the TSV fields of a row
+         * @throws IOException if the row cannot be written
+         */
+        void writeRow(CharSequence... fields) throws IOException;
+    }
     
     /**
      * Complex Arlington "Type" fields can be reduced due to predicates.
      * This reduction then needs to be mirrored across other TSV fields
      * so that the number of SEMI-COLON separated elements matches.
      */
-    public class TypeListModifier {
+    public static class TypeListModifier {
         private String      output_types;
         private boolean[]   input_was_reduced; 
 
@@ -54,12 +72,8 @@ public class TSVHandler {
          * @param types the original Arlington "Types" field
          */
         public TypeListModifier(String types) {
-            String[] arr = types.split(";"); // split complex type
             output_types = types;
-            input_was_reduced = new boolean[arr.length];
-            for (int i = 0; i < arr.length; i++) {
-                input_was_reduced[i] = false;
-            }
+            input_was_reduced = new boolean[FieldScanner.countGroups(types)];
         }
         
         /**
@@ -88,24 +102,21 @@ public class TSVHandler {
          * @return  correspondingly reduced (transformed) Arlington field
          */
         public String reduceCorresponding(String str) {
-            String[] arr = str.split(";"); // split complex type
-            if (arr.length != input_was_reduced.length) {
+            if (FieldScanner.countGroups(str) != input_was_reduced.length) {
                 System.out.println("Error: pre-reduction lengths did not match for '" + str + "'!");
                 return str;
             }
-            String out_str = "";
-            int out_len = 0;
-            for (int i = 0; i < input_was_reduced.length; i++) {
+            StringBuilder out = new StringBuilder(str.length());
+            FieldScanner groups = new FieldScanner(str);
+            for (int i = 0; groups.nextGroup(); i++) {
                 if (!input_was_reduced[i]) {
-                    if (out_str.isBlank()) {
-                        out_str = arr[i];
-                    }
-                    else {
-                        out_str = out_str + ";" + arr[i];
+                    if (out.length() > 0) {
+                        out.append(';');
                     }
-                    out_len = out_len + 1;
+                    out.append(str, groups.getStart(), groups.getEnd());
                 }
             }
+            String out_str = out.toString();
             // Reduce even further for special fields...
             if ("[TRUE]".equals(out_str)) {
                 out_str = "TRUE";
@@ -127,34 +138,148 @@ public class TSVHandler {
     }
     
     /**
-     * The list of all valid supported PDF versions
+     * The list of all valid supported PDF versions (see PdfVersion)
      */
-    public final static double[] pdf_version = {1.0, 1.1, 1.2, 1.3, 1.4, 1.5, 1.6, 1.7, 2.0};
+    public final static double[] pdf_version = Arrays.stream(PdfVersion.values()).mapToDouble(PdfVersion::getValue).toArray();
     
     /**
      * The list of all Arlington predefined types that require a Link. Alphabetical.
      */
     private final static String[] linked_types = {"array", "dictionary", "name-tree", "number-tree", "stream"};
         
+    /**
+     * Maximum number of fields remembered by each reduction cache. Well
+     * above the number of distinct fields in the latest TSV file set.
+     */
+    private final static int reduction_cache_capacity = 16384;
+
+    /**
+     * The reduction caches for one ExtensionProfile, shared by all TSVHandler
+     * objects and threads that target it
+     */
+    private static final class Reducers {
+        /** reduced Type fields */
+        private final ReductionCache<TypeListModifier> types_cache;
+        /** reduced complex (Links, PossibleValues, ...) fields */
+        private final ReductionCache<String> complex_cache;
+        /** reduced Required fields */
+        private final ReductionCache<String> required_cache;
+        /** reduced SpecialCase fields */
+        private final ReductionCache<String> special_case_cache;
+
+        private Reducers(ExtensionProfile profile) {
+            types_cache = new ReductionCache<>("reduceTypesForVersion", reduction_cache_capacity,
+                    (s, v) -> reduceTypes(s, v, profile));
+            complex_cache = new ReductionCache<>("reduceComplexForVersion", reduction_cache_capacity,
+                    (s, v) -> reduceComplex(s, v, profile));
+            required_cache = new ReductionCache<>("reduceRequiredForVersion", reduction_cache_capacity,
+                    (s, v) -> reduceRequired(s, v, profile));
+            special_case_cache = new ReductionCache<>("reduceSpecialCaseForVersion", reduction_cache_capacity,
+                    (s, v) -> reduceSpecialCase(s, v, profile));
+        }
+
+        private long getLookupCount() {
+            return types_cache.getLookupCount() + complex_cache.getLookupCount()
+                   + required_cache.getLookupCount() + special_case_cache.getLookupCount();
+        }
+    }
+
+    /**
+     * Reduction caches by extension profile
+     */
+    private final static ConcurrentHashMap<ExtensionProfile, Reducers> reducers = new ConcurrentHashMap<>();
+
     /**
      * The path to the latest TSV file set (typically "tsv/latest")
      */
-    private static String path_to_tsv_files = "";
+    private final String path_to_tsv_files;
+
+    /**
+     * Number of worker threads used to process TSV files concurrently.
+     * 1 means process serially.
+     */
+    private final int thread_count;
+
+    /**
+     * The in-memory latest TSV file set. Loaded on first use if not
+     * supplied to the constructor.
+     */
+    private ArlingtonModel model = null;
+
+    /**
+     * The extensions being targeted
+     */
+    private final ExtensionProfile profile;
+
+    /**
+     * The reduction caches for 'profile'
+     */
+    private final Reducers cache;
     
     /**
      * Constructor. 
      */
     public TSVHandler(){
-        path_to_tsv_files = System.getProperty("user.dir") + "/tsv/latest/";
+        this(null, 1);
+    }
+
+    /**
+     * Constructor for an already loaded latest TSV file set, so that it
+     * is not re-read from disk for every PDF version.
+     *
+     * @param model  the latest Arlington TSV file set
+     */
+    public TSVHandler(ArlingtonModel model){
+        this(model, 1);
+    }
+
+    /**
+     * Constructor that processes the TSV files of a file set concurrently.
+     *
+     * @param model  the latest Arlington TSV file set, or null to read it
+     *               from 'path_to_tsv_files' on first use
+     * @param thread_count  number of worker threads (1 = serial)
+     */
+    public TSVHandler(ArlingtonModel model, int thread_count){
+        this(model, thread_count, ExtensionProfile.ALL);
+    }
+
+    /**
+     * Constructor for TSV file sets specialised for a set of extensions.
+     *
+     * @param model  the latest Arlington TSV file set, or null to read it
+     *               from 'path_to_tsv_files' on first use
+     * @param thread_count  number of worker threads (1 = serial)
+     * @param profile  the extensions being targeted
+     */
+    public TSVHandler(ArlingtonModel model, int thread_count, ExtensionProfile profile){
+        this.path_to_tsv_files = System.getProperty("user.dir") + "/tsv/latest/";
+        this.model = model;
+        this.thread_count = Math.max(thread_count, 1);
+        this.profile = profile;
+        this.cache = reducers.computeIfAbsent(profile, Reducers::new);
+    }
+
+    /**
+     * Returns the latest TSV file set, reading it from 'path_to_tsv_files'
+     * if this has not already been done.
+     *
+     * @return the in-memory latest TSV file set
+     * @throws IOException if the TSV file set cannot be read
+     */
+    private synchronized ArlingtonModel getModel() throws IOException {
+        if (model == null) {
+            model = ArlingtonModel.load(path_to_tsv_files);
+        }
+        return model;
     }
 
     /**
      * Creates TSV file sets for all the PDF versions, based on 'path_to_tsv_files'
-     * Deletes all existing PDF version sub-folders and files!
+     * Replaces all existing PDF version sub-folders and files!
      */
     public void createAllVersionsTSV() {
-        for (double x : pdf_version) {
-            deleteTSVset(x);
+        for (PdfVersion x : PdfVersion.values()) {
             createTSVset(x);
         }
     }
@@ -176,177 +301,343 @@ public class TSVHandler {
    }
 
    /**
-     * Creates a TSV file set for the specified PDF version
+    * Returns true if a TSV field contains an Arlington predicate ("fn:")
+    * and thus might need to be reduced.
+    *
+    * @param field a TSV field
+    *
+    * @return true if the field contains "fn:"
+    */
+   private static boolean hasPredicate(CharSequence field) {
+       return field.toString().contains("fn:");
+   }
+
+   /**
+     * Creates a TSV file set for the specified PDF version, replacing any
+     * existing one. Each TSV file is independent of all others so they are
+     * processed concurrently if this object was created with more than 1 thread.
+     * All files are first written to a staging folder and then published,
+     * see publishTSVfiles().
      * 
      * @param version  the PDF version between 1.0 to 2.0 inclusive
      */
-    public void createTSVset(double version) {
-        final String delimiter = "\t";
-        
-        File folder = new File(path_to_tsv_files);
-        var list_of_files = folder.listFiles();
-        
-        for (File file : list_of_files){
-            if (file.isFile() && file.canRead() && file.exists()) {
-                try {
-                    BufferedReader tsv_reader;
-                    var temp = path_to_tsv_files;
-                    String file_name = file.getName().substring(0, file.getName().length()-4);
-                    temp += file_name + ".tsv";
-                    tsv_reader = new BufferedReader(new FileReader(temp));
-                    String[] row;
-                    String output_string = "";
-                    String entry = "";
-                    System.out.println("================\nProcessing " + file_name + " for version " + version);
-                    String current_line = tsv_reader.readLine();
-                    // First line is header
-                    if (current_line != null) {
-                        output_string = current_line + "\n";
-                    }
-                    while ((current_line = tsv_reader.readLine()) != null) {
-                        row = current_line.split(delimiter, -1);
-                        if (row.length != 12) {
-                            System.out.println("Error: " + file_name + " had " + row.length + " rows, not 12!\n");
-                        } 
-                        else {
-                            // Field 0 = Key
-                            String key_name = row[0];
-                            
-                            // Field 1 = Type: complex type, SEMI-COLON separated, may have version-based predicates
-                            String data_type = row[1]; 
-                            
-                            // Field  2= SinceVersion: 1.0, 1.1, ..., 2.0 inclusive - may have predicates!
-                            String since_version = row[2];
-                            
-                            // Field 3 = DeprecatedIn
-                            String deprecated = row[3];
-                            
-                            // Field 4 = Required possibly wrapped in "fn:IsRequired(...)" with version-based predicates
-                            String required = row[4];
-                            
-                            // Field 5 = IndirectReference: possibly complex so may need reduction
-                            String indirect_ref = row[5];
-                            
-                            // Field 6 = IndirectReference: possibly complex so may need reduction
-                            String inheritable = row[6];
-                            
-                            // Field 7 = DefaultValue: possibly complex so may need reduction
-                            String default_value = row[7];
-                            
-                            // Field 8 = PossibleValues: possibly complex, may also have version-based predicates
-                            String possible_values = row[8];
-                            
-                            // Field 9 = SpecialCase: possibly complex, may also have version-based predicates
-                            String special_case = row[9];
-                            
-                            // Field 10 = Links: possibly complex, may also have version-based predicates
-                            String links = row[10];
-                            
-                            // Field 11 = Notes. Text
-                            String notes = row[11];
-                            
-                            var updated_since_ver = new StringBuilder("");
-                            if (reduceSinceVersion(since_version, version, updated_since_ver) <= version) {
-                                System.out.println("\tKept key: " + key_name);
-                                assert(!updated_since_ver.toString().isBlank());
-                                if (!since_version.equals(updated_since_ver.toString())) {
-                                    System.out.println("\t\tPredicate = " + updated_since_ver);
-                                    since_version = updated_since_ver.toString();
-                                }
-                                TypeListModifier types_reduced = reduceTypesForVersion(data_type, version);
-                                if (types_reduced.somethingReduced()) {
-                                    // At least one type got reduced so need to
-                                    // reduce various other TSV fields accordingly
-                                    // BEFORE they themselves are reduced
-                                    indirect_ref = types_reduced.reduceCorresponding(indirect_ref);
-                                    default_value = types_reduced.reduceCorresponding(default_value);
-                                    possible_values = types_reduced.reduceCorresponding(possible_values);
-                                    special_case = types_reduced.reduceCorresponding(special_case);
-                                    links = types_reduced.reduceCorresponding(links);
-                                }
-                                String links_reduced = reduceComplexForVersion(links, version);
-                                String pv_reduced = reduceComplexForVersion(possible_values, version);
-                               
-                                if (required.startsWith("fn:IsRequired(")) {
-                                    required = reduceRequiredForVersion(required, version);                                    
-                                }
-                                
-                                // Did we reduce links to effectively nothing for a single basic type?
-                                if ("[]".equals(links_reduced)) {
-                                    assert !isLinkedType(types_reduced.output_types) : "Reduced to [] for a Type requiring a Link!";
-                                    links_reduced = "";
-                                }
-
-                                String record =
-                                        key_name + delimiter +
-                                        types_reduced.output_types + delimiter +
-                                        since_version + delimiter +
-                                        deprecated + delimiter +
-                                        required + delimiter +
-                                        indirect_ref + delimiter +
-                                        inheritable + delimiter +
-                                        default_value + delimiter +
-                                        pv_reduced + delimiter +
-                                        special_case + delimiter +
-                                        links_reduced + delimiter +
-                                        notes;
-                                entry += record + "\n";
-                            }
-                            else {
-                                System.out.println("\tDropped key: " + key_name);
-                            }
-                        }            
-                    } // while
-                    // Did we exclude the entire object??
-                    if (!entry.isEmpty()) {
-                        output_string += entry;
-                        writeToFile(output_string, file_name, version);
-                    }
-                    else {
-                        System.out.println("\tNot writing file " + file_name + " for version " + version);                        
+    public void createTSVset(PdfVersion version) {
+        try {
+            ArlingtonModel latest = getModel();
+            Path staging = createStagingFolder(version);
+            createTSVfiles(latest.getObjects(), version, staging);
+            publishTSVfiles(version, staging, null);
+        }
+        catch (IOException ex) {
+            Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Updates an existing TSV file set for the specified PDF version by only
+     * recreating the TSV files of specific objects. Objects that are no
+     * longer in the latest TSV file set have their TSV file deleted.
+     *
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @param changed  names of the objects to recreate or delete
+     */
+    public void updateTSVset(PdfVersion version, Set<String> changed) {
+        try {
+            ArlingtonModel latest = getModel();
+            ArrayList<ArlingtonModel.TSVObject> objs = new ArrayList<>();
+            for (String name : changed) {
+                ArlingtonModel.TSVObject obj = latest.getObject(name);
+                if (obj != null) {
+                    objs.add(obj);
+                }
+            }
+            Path staging = createStagingFolder(version);
+            createTSVfiles(objs, version, staging);
+            publishTSVfiles(version, staging, changed);
+        }
+        catch (IOException ex) {
+            Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @return the folder of the TSV file set for the PDF version
+     */
+    private static Path getVersionFolder(PdfVersion version) {
+        return Paths.get(System.getProperty("user.dir"), "tsv", version.toString());
+    }
+
+    /**
+     * Creates an empty staging folder for a PDF version next to the PDF
+     * version folder (so on the same file system). Anything left over from
+     * an interrupted run is removed.
+     *
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @return the empty staging folder
+     * @throws IOException if the folder cannot be created or emptied
+     */
+    private static Path createStagingFolder(PdfVersion version) throws IOException {
+        Path staging = Paths.get(System.getProperty("user.dir"), "tsv", ".staging-" + version);
+        if (Files.isDirectory(staging)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(staging)) {
+                for (Path f : files) {
+                    Files.delete(f);
+                }
+            }
+        }
+        Files.createDirectories(staging);
+        return staging;
+    }
+
+    /**
+     * Moves the TSV files from a staging folder into the PDF version folder
+     * and then removes the staging folder. Each file is replaced by an atomic
+     * rename so readers of the PDF version folder only ever see complete
+     * files. Files whose bytes have not changed are left untouched. A file
+     * that was not staged is deleted from the PDF version folder, as the
+     * object no longer exists or was dropped for this PDF version.
+     *
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @param staging  the staging folder
+     * @param names    the names of the objects that were staged, or null
+     *                 if the staging folder holds the complete TSV file set
+     * @throws IOException if a file cannot be published
+     */
+    private static void publishTSVfiles(PdfVersion version, Path staging, Set<String> names) throws IOException {
+        Path folder = getVersionFolder(version);
+        Files.createDirectories(folder);
+
+        HashSet<String> staged = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(staging)) {
+            for (Path f : files) {
+                Path target = folder.resolve(f.getFileName());
+                staged.add(f.getFileName().toString());
+                if (Files.isRegularFile(target) && (Files.size(target) == Files.size(f))
+                    && Arrays.equals(Files.readAllBytes(target), Files.readAllBytes(f))) {
+                    Files.delete(f);
+                }
+                else {
+                    Files.move(f, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+        }
+
+        ArrayList<Path> stale = new ArrayList<>();
+        if (names == null) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+                for (Path f : files) {
+                    if (Files.isRegularFile(f) && !staged.contains(f.getFileName().toString())) {
+                        stale.add(f);
                     }
-                    tsv_reader.close();
-                } 
-                catch (FileNotFoundException ex) {
-                    Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
-                } 
-                catch (IOException ex) {
-                    Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
-                } // catch
-            } // if file OK
-        } // for file
+                }
+            }
+        }
+        else {
+            for (String name : names) {
+                if (!staged.contains(name + ".tsv")) {
+                    stale.add(folder.resolve(name + ".tsv"));
+                }
+            }
+        }
+        for (Path f : stale) {
+            if (Files.deleteIfExists(f)) {
+                System.out.println("Deleted " + f.getFileName() + " for version " + version);
+            }
+        }
+        Files.delete(staging);
     }
 
     /**
-     * Writes a new TSV file to a specified PDF version folder
-     * 
-     * @param output_string string the tab-separated multi-line string to write
-     * @param file the filename (i.e. PDF object)
-     * @param version the PDF version used to select the sub-folder
+     * Creates the TSV files of a list of objects for the specified PDF
+     * version, concurrently if this object was created with more than 1 thread.
+     *
+     * @param objs     objects from the latest TSV file set
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @param folder   the folder to write the TSV files to
      */
-    private void writeToFile(String output_string, String file, double version) {
-        BufferedWriter out = null;
-        
-        String path = System.getProperty("user.dir") + "/tsv/";
-        path += version + "/" + file +".tsv";
+    private void createTSVfiles(List<ArlingtonModel.TSVObject> objs, PdfVersion version, Path folder) {
+        if (thread_count == 1) {
+            for (ArlingtonModel.TSVObject obj : objs) {
+                createTSVfile(obj, version, folder);
+            }
+        }
+        else {
+            ForkJoinPool pool = new ForkJoinPool(thread_count);
+            try {
+                pool.submit(() -> objs.parallelStream().forEach(obj -> createTSVfile(obj, version, folder))).get();
+            }
+            catch (InterruptedException | ExecutionException ex) {
+                Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+    }
 
-        try {
-            FileWriter fstream = new FileWriter(path, false);
-            out = new BufferedWriter(fstream);
-            out.write(output_string);
+    /**
+     * Creates the TSV file for a single object for the specified PDF version.
+     * If the latest TSV file set came with an already reduced TSV file set
+     * for the PDF version then its rows are written as they are (unless
+     * targeting specific extensions, as those are never precompiled).
+     * Console output is collected and written in one go so that output
+     * from concurrently processed files does not interleave.
+     *
+     * @param obj      an object from the latest TSV file set
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @param folder   the folder to write the TSV file to
+     */
+    private void createTSVfile(ArlingtonModel.TSVObject obj, PdfVersion version, Path folder) {
+        final StringBuilder log = new StringBuilder();
+
+        String file_name = obj.getName();
+        log.append("================\nProcessing " + file_name + " for version " + version).append('\n');
+        // Header is written first, when the first row is kept
+        Path path = folder.resolve(file_name + ".tsv");
+        try (TSVWriter out = new TSVWriter(path, obj.getHeader(), ArlingtonModel.DELIMITER)) {
+            ArlingtonModel reduced_set = profile.isSpecialised() ? null : getModel().getVersionModel(version);
+            if (reduced_set != null) {
+                ArlingtonModel.TSVObject reduced = reduced_set.getObject(file_name);
+                for (int r = 0; (reduced != null) && (r < reduced.getRowCount()); r++) {
+                    CharSequence[] fields = new CharSequence[reduced.getFieldCount(r)];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = reduced.getField(r, i);
+                    }
+                    out.writeRow(fields);
+                }
+            }
+            else {
+                reduceTSVobject(obj, version, out, log);
+            }
+            // Did we exclude the entire object??
+            if (out.getRowCount() == 0) {
+                log.append("\tNot writing file " + file_name + " for version " + version).append('\n');                        
+            }
         }
         catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
         }
-        finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ex) {
-                    Logger.getLogger(TSVHandler.class.getName()).log(Level.SEVERE, null, ex);
+        System.out.print(log);
+    }
+
+    /**
+     * Reduces all rows of a single object for the specified PDF version.
+     * Rows of keys that do not exist in the PDF version are dropped.
+     *
+     * @param obj      an object from the latest TSV file set
+     * @param version  the PDF version between 1.0 to 2.0 inclusive
+     * @param out      receives every row that is kept, after reduction
+     * @param log      receives console output
+     * @throws IOException if 'out' fails to write a row
+     */
+    public void reduceTSVobject(ArlingtonModel.TSVObject obj, PdfVersion version, RowSink out, StringBuilder log) throws IOException {
+        for (int r = 0; r < obj.getRowCount(); r++) {
+            // Fields are Strings shared through the model dictionary. Only
+            // fields that get reduced result in new Strings.
+            if (obj.getFieldCount(r) != 12) {
+                log.append("Error: " + obj.getName() + " had " + obj.getFieldCount(r) + " rows, not 12!\n").append('\n');
+            } 
+            else {
+                // Field 0 = Key
+                CharSequence key_name = obj.getKey(r);
+            
+                // Field 1 = Type: complex type, SEMI-COLON separated, may have version-based predicates
+                CharSequence data_type = obj.getType(r); 
+            
+                // Field  2= SinceVersion: 1.0, 1.1, ..., 2.0 inclusive - may have predicates!
+                String since_version = obj.getSinceVersion(r);
+            
+                // Field 3 = DeprecatedIn
+                CharSequence deprecated = obj.getDeprecatedIn(r);
+            
+                // Field 4 = Required possibly wrapped in "fn:IsRequired(...)" with version-based predicates
+                CharSequence required = obj.getRequired(r);
+            
+                // Field 5 = IndirectReference: possibly complex so may need reduction
+                CharSequence indirect_ref = obj.getIndirectReference(r);
+            
+                // Field 6 = IndirectReference: possibly complex so may need reduction
+                CharSequence inheritable = obj.getInheritable(r);
+            
+                // Field 7 = DefaultValue: possibly complex so may need reduction
+                CharSequence default_value = obj.getDefaultValue(r);
+            
+                // Field 8 = PossibleValues: possibly complex, may also have version-based predicates
+                CharSequence possible_values = obj.getPossibleValues(r);
+            
+                // Field 9 = SpecialCase: possibly complex, may also have version-based predicates
+                CharSequence special_case = obj.getSpecialCase(r);
+            
+                // Field 10 = Links: possibly complex, may also have version-based predicates
+                CharSequence links = obj.getLink(r);
+            
+                // Field 11 = Notes. Text
+                CharSequence notes = obj.getNote(r);
+            
+                VersionMask exists = profile.isSpecialised() ? profile.getVersionMask(since_version) : obj.getVersionMask(r);
+                if (exists.contains(version)) {
+                    var updated_since_ver = new StringBuilder("");
+                    if (profile.isSpecialised()) {
+                        updated_since_ver.append(profile.reduceSinceVersion(since_version));
+                    }
+                    else {
+                        reduceSinceVersion(since_version, version, updated_since_ver);
+                    }
+                    log.append("\tKept key: " + key_name).append('\n');
+                    assert(!updated_since_ver.toString().isBlank());
+                    if (!since_version.equals(updated_since_ver.toString())) {
+                        log.append("\t\tPredicate = " + updated_since_ver).append('\n');
+                        since_version = updated_since_ver.toString();
+                    }
+                    CharSequence types_out = data_type;
+                    if (hasPredicate(data_type)) {
+                        TypeListModifier types_reduced = reduceTypesForVersion(data_type.toString(), version);
+                        types_out = types_reduced.output_types;
+                        if (types_reduced.somethingReduced()) {
+                            // At least one type got reduced so need to
+                            // reduce various other TSV fields accordingly
+                            // BEFORE they themselves are reduced
+                            indirect_ref = types_reduced.reduceCorresponding(indirect_ref.toString());
+                            default_value = types_reduced.reduceCorresponding(default_value.toString());
+                            possible_values = types_reduced.reduceCorresponding(possible_values.toString());
+                            special_case = types_reduced.reduceCorresponding(special_case.toString());
+                            links = types_reduced.reduceCorresponding(links.toString());
+                        }
+                    }
+                    if (hasPredicate(default_value)) {
+                        default_value = reduceDefaultValueForVersion(default_value.toString(), version);
+                    }
+                    CharSequence links_reduced = links;
+                    if (hasPredicate(links)) {
+                        links_reduced = reduceComplexForVersion(links.toString(), version);
+                    }
+                    CharSequence pv_reduced = possible_values;
+                    if (hasPredicate(possible_values)) {
+                        pv_reduced = reduceComplexForVersion(possible_values.toString(), version);
+                    }
+               
+                    if (hasPredicate(required) && required.toString().startsWith("fn:IsRequired(")) {
+                        required = reduceRequiredForVersion(required.toString(), version);                                    
+                    }
+                    if (hasPredicate(special_case)) {
+                        special_case = reduceSpecialCaseForVersion(special_case.toString(), version);
+                    }
+                
+                    // Did we reduce links to effectively nothing for a single basic type?
+                    if ("[]".contentEquals(links_reduced)) {
+                        assert !isLinkedType(types_out.toString()) : "Reduced to [] for a Type requiring a Link!";
+                        links_reduced = "";
+                    }
+
+                    out.writeRow(key_name, types_out, since_version, deprecated, required, indirect_ref,
+                                 inheritable, default_value, pv_reduced, special_case, links_reduced, notes);
                 }
-            }
-        }
+                else {
+                    log.append("\tDropped key: " + key_name).append('\n');
+                }
+            }            
+        } // for row
     }
 
     /**
@@ -376,26 +667,10 @@ public class TSVHandler {
      * @param s  the string
      * @return -1 if no matching bracket pair or IndexOf matching ")" in string
      */
-    public int indexOfOuterCloseBracket(String s) {
-        int nested = 0;
-        int i = 0;
-        
-        for (char ch: s.toCharArray()) {
-            if (ch == '('){
-                nested++;
-            }
-            else if (ch == ')') {
-                if (nested == 1) {
-                    return i;
-                }
-                nested--;
-            }
-            i++;
-        }
-        return -1;
+    public static int indexOfOuterCloseBracket(String s) {
+        return FieldScanner.indexOfOuterCloseBracket(s, 0, s.length());
     }
 
-    
     /**
      * Processes an atomic Arlington entry that might contain version
      * predicates and reduces it appropriately for the specified PDF version.
@@ -411,52 +686,111 @@ public class TSVHandler {
      * 
      * @return the version-reduced equivalent appropriate for the version
      */
-   public String reduceAtomicForVersion(String str, double version) {
+    public static String reduceAtomicForVersion(String str, PdfVersion version) {
         if ((str.isBlank()) || (!str.contains("fn:"))) {
             return str;
         }
 
-        String   tsv_ver;
-        String   tsv_s = str;
-        // +3 = length of PDF version string "x.y"
-        // +1 = trailing COMMA as predicate operand separator before atomic element
-        if (str.startsWith("fn:SinceVersion(")) {
-            tsv_ver = str.substring(16, 16+3);
-            if (version >= Double.parseDouble(tsv_ver)) {
-                tsv_s = str.substring(16+3+1, str.length()-1);
-            }
-            else {
-                tsv_s = "";
-            }
+        PredicateNode fn = parsePredicate(str);
+        // Only version predicates with 2 arguments: version and the atomic element
+        if ((fn == null) || (fn.getKind() != PredicateNode.Kind.FUNCTION) || (fn.getChildren().size() != 2) || !fn.getChild(0).isReal()) {
+            return str;
         }
-        else if (str.startsWith("fn:BeforeVersion(")) {
-            tsv_ver = str.substring(17, 17+3);
-            if (Double.parseDouble(tsv_ver) < version) {
-                tsv_s = str.substring(17+3+1, str.length()-1);
-            }
-            else {
-                tsv_s = str;
-            }
+        double tsv_ver = Double.parseDouble(fn.getChild(0).getText());
+        String tsv_s   = fn.getChild(1).getText();
+        switch (fn.getName()) {
+            case "fn:SinceVersion":
+                return (version.getValue() >= tsv_ver) ? tsv_s : "";
+            case "fn:BeforeVersion":
+                return (tsv_ver < version.getValue()) ? tsv_s : str;
+            case "fn:Deprecated":
+                return (version.getValue() < tsv_ver) ? tsv_s : str;
+            case "fn:IsPDFVersion":
+                return (PdfVersion.fromValue(tsv_ver) == version) ? tsv_s : "";
+            default:
+                return str;
         }
-        else if (str.startsWith("fn:Deprecated(")) {
-            tsv_ver = str.substring(14, 14+3);
-            if (version < Double.parseDouble(tsv_ver)) {
-                tsv_s = str.substring(14+3+1, str.length()-1);
-            }
-            else {
-                tsv_s = str;
-            }
+    }
+
+    /**
+     * Folds the extension predicates of an atomic element (from a Type,
+     * Links or PossibleValues field) that has already been reduced for a
+     * PDF version. Only for a specialised ExtensionProfile:
+     * - fn:Extension(AAA,zzz): zzz if AAA is enabled, else remove
+     * - fn:Eval(...): partially evaluated (see PartialEvaluator), removed if
+     *   it can never hold
+     * - fn:SinceVersion(x.y,zzz) and the like: zzz is folded
+     *
+     * @param str     the version-reduced atomic element
+     * @param version the PDF version being targeted. 1.0 to 2.0 inclusive.
+     * @param profile the extensions being targeted
+     *
+     * @return the folded element, or "" if it is removed
+     */
+    public static String reduceAtomicForExtensions(String str, PdfVersion version, ExtensionProfile profile) {
+        if ((str.isBlank()) || (!str.contains("fn:"))) {
+            return str;
         }
-        else if (str.startsWith("fn:IsPDFVersion(")) {
-            tsv_ver = str.substring(16, 16+3);
-            if (version == Double.parseDouble(tsv_ver)) {
-                tsv_s = str.substring(16+3+1, str.length()-1);
+
+        PredicateNode fn = parsePredicate(str);
+        if ((fn == null) || (fn.getKind() != PredicateNode.Kind.FUNCTION)) {
+            return str;
+        }
+        if (fn.isFunction("fn:Extension", 2)) {
+            if (!profile.isEnabled(fn.getChild(0).getText())) {
+                return "";
             }
-            else {
-                tsv_s = "";
+            return reduceAtomicForExtensions(fn.getChild(1).getText(), version, profile);
+        }
+        if (fn.isFunction("fn:Eval", 1)) {
+            return reduceEvalElement(str, version, profile);
+        }
+        if ((fn.getChildren().size() == 2) && fn.getChild(0).isReal()) {
+            PredicateNode arg = fn.getChild(1);
+            String reduced = reduceAtomicForExtensions(arg.getText(), version, profile);
+            if (reduced.isBlank()) {
+                return "";
             }
+            String fn_text = fn.getText();
+            return fn_text.substring(0, fn.getChildStart(1)) + reduced + fn_text.substring(fn.getChildEnd(1));
+        }
+        return str;
+    }
+
+    /**
+     * Partially evaluates an fn:Eval() element of a Links or PossibleValues
+     * field (see PartialEvaluator).
+     *
+     * @param str     the fn:Eval() element
+     * @param version the PDF version being targeted. 1.0 to 2.0 inclusive.
+     * @param profile the extensions being targeted
+     *
+     * @return the reduced element ("fn:Eval(true)" if it always holds), or ""
+     *         if it can never hold
+     */
+    private static String reduceEvalElement(String str, PdfVersion version, ExtensionProfile profile) {
+        String reduced = PartialEvaluator.reduceEval(str, version, profile);
+        if (reduced.equals("true")) {
+            return "fn:Eval(true)";
+        }
+        return reduced.equals("fn:Eval(false)") ? "" : reduced;
+    }
+
+    /**
+     * Parses an Arlington predicate (cached, see PredicateParser). Predicates
+     * that cannot be parsed are reported and then left as they are.
+     *
+     * @param predicate  the predicate
+     * @return the abstract syntax tree or null if the predicate is not valid
+     */
+    private static PredicateNode parsePredicate(String predicate) {
+        try {
+            return PredicateParser.parse(predicate);
+        }
+        catch (IllegalArgumentException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return null;
         }
-        return tsv_s;
     }
     
     /**
@@ -466,37 +800,45 @@ public class TSVHandler {
      * @param str     the Type field from an Arlington TSV file
      * @param version the PDF version being targeted. 1.0 to 2.0 inclusive. 
      *
-     * @return a TypeListModifier object, summarizing what happened
+     * @return a TypeListModifier object, summarizing what happened. Shared
+     *         (cached), so must not be modified.
      */
-    public TypeListModifier reduceTypesForVersion(String str, double version) {
+    public TypeListModifier reduceTypesForVersion(String str, PdfVersion version) {
+        return cache.types_cache.get(str, version);
+    }
+
+    private static TypeListModifier reduceTypes(String str, PdfVersion version, ExtensionProfile profile) {
         TypeListModifier  obj = new TypeListModifier(str);
         
         if ((str.isBlank()) || (!str.contains("fn:"))) {
             return obj;
         }
 
-        String[] arr = str.split(";"); // split complex type
-        
-        String   out_types = "";
-        String   tsv_s;
-        int      i = 0;
-        for (String a : arr) {
-            tsv_s = reduceAtomicForVersion(a, version);
-
-            // Append to output if there was anything to keep
-            if (!tsv_s.isBlank()) {
-                if (out_types.isBlank()) {
-                    out_types = tsv_s;
-                } else {
-                    out_types = out_types + ";" + tsv_s;
+        StringBuilder out_types = new StringBuilder(str.length());
+        FieldScanner  groups = new FieldScanner(str);
+        for (int i = 0; groups.nextGroup(); i++) {
+            String a = groups.token();
+            // Append to output if the type exists in this version
+            if (VersionMask.ofTypeAlternative(a).contains(version)) {
+                String tsv_s = reduceAtomicForVersion(a, version);
+                if (profile.isSpecialised()) {
+                    tsv_s = reduceAtomicForExtensions(tsv_s, version, profile);
+                }
+                if (tsv_s.isBlank()) {
+                    obj.input_was_reduced[i] = true;
+                }
+                else {
+                    if (out_types.length() > 0) {
+                        out_types.append(';');
+                    }
+                    out_types.append(tsv_s);
                 }
             }
             else {
                 obj.input_was_reduced[i] = true;
             }
-            i++;
         }
-        obj.output_types = out_types;
+        obj.output_types = out_types.toString();
         return obj;
     }
     
@@ -509,78 +851,77 @@ public class TSVHandler {
      * 
      * @return the version-reduced equivalent appropriate for the version
      */
-    public String reduceComplexForVersion(String str, double version) {
+    public String reduceComplexForVersion(String str, PdfVersion version) {
+        return cache.complex_cache.get(str, version);
+    }
+
+    private static String reduceComplex(String str, PdfVersion version, ExtensionProfile profile) {
         if ((str.isBlank()) || (!str.contains("fn:"))) {
             return str;
         }
 
-        String[] arr = str.split(";"); // split complex type
-        
-        String   out_links = "";
-        for (String a : arr) {
-            // strip [ and ]    
-            a = a.substring(1, a.length() - 1);
-            
-            String link = "";
-            // COMMAs are ambiguous: separators or inside predicates?
-            while (!a.isBlank()) {
-                if (a.startsWith("fn:")) {
-                    // get up to closing bracket )
-                    int i = indexOfOuterCloseBracket(a);
-                    assert i != -1: "No ')' for predicate!";
-                    
-                    // Get encapsulating predicate incl. close bracket
-                    String s = a.substring(0, i + 1);
-
-                    if (i + 2 < a.length()) {
-                        a = a.substring(i + 2, a.length());
+        StringBuilder out_links = new StringBuilder(str.length());
+        FieldScanner  groups = new FieldScanner(str);
+        FieldScanner  items = new FieldScanner(str);
+        while (groups.nextGroup()) {
+            if (out_links.length() > 0) {
+                out_links.append(';');
+            }
+            out_links.append('[');
+            int link_start = out_links.length();
+            // strip [ and ]. COMMAs are ambiguous: separators or inside predicates?
+            items.reset(str, groups.getStart() + 1, groups.getEnd() - 1);
+            while (items.nextItem()) {
+                if (items.isPredicate()) {
+                    String reduced = reduceAtomicForVersion(items.token(), version);
+                    if (profile.isSpecialised()) {
+                        reduced = reduceAtomicForExtensions(reduced, version, profile);
                     }
-                    else {
-                        a = "";
+                    else if (reduced.startsWith("fn:Eval(")) {
+                        reduced = reduceEvalElement(reduced, version, profile);
                     }
-                    String reduced = reduceAtomicForVersion(s, version);
-
                     // Append to output if there was anything to keep
                     if (!reduced.isBlank()) {
-                        if (link.isBlank()) {
-                            link = reduced;
-                        } else {
-                            link = link + "," + reduced;
+                        if (out_links.length() > link_start) {
+                            out_links.append(',');
                         }
-                    }
-                    // remove COMMA if not at end of string
-                    if ((!a.isBlank()) && (a.charAt(0) == ',')) {
-                        a = a.substring(1, a.length());
+                        out_links.append(reduced);
                     }
                 }
                 else {
-                    String s = a;
-                    if (a.indexOf(',') >= 0) {
-                        s = a.substring(0, a.indexOf(','));
-                        a = a.substring(a.indexOf(',') + 1, a.length());
-                    }
-                    else {
-                        a = "";
+                    if (out_links.length() > link_start) {
+                        out_links.append(',');
                     }
-                    if (link.isBlank()) {
-                        link = s;
-                    } else {
-                        link = link + "," + s;
-                    }                    
+                    out_links.append(str, items.getStart(), items.getEnd());
                 }
-            } // while
-            
-            if (out_links.isBlank()) {
-                out_links = "[" + link + "]";
-            }
-            else {
-                out_links = out_links + ";[" + link + "]"; 
             }
-        } // for
-        return out_links;
+            out_links.append(']');
+        }
+        return out_links.toString();
     }
     
     
+    /**
+     * Prints how often the reduction caches were used, and how often a
+     * reduced field was already known. Nothing is printed if no fields
+     * have been reduced.
+     */
+    public static void reportReductionCaches() {
+        if (PredicateParser.getCacheSize() > 0) {
+            System.out.println("Predicates: " + PredicateParser.getCacheSize() + " parsed, "
+                               + PredicateParser.getNodeCount() + " distinct AST nodes");
+        }
+        reducers.forEach((profile, c) -> {
+            if (c.getLookupCount() > 0) {
+                String extns = profile.isSpecialised() ? " (extensions " + profile + ")" : "";
+                System.out.println("Reduction cache " + c.types_cache + extns);
+                System.out.println("Reduction cache " + c.complex_cache + extns);
+                System.out.println("Reduction cache " + c.required_cache + extns);
+                System.out.println("Reduction cache " + c.special_case_cache + extns);
+            }
+        });
+    }
+
     /**
      * Processes an Arlington "Required" field that might contain version
      * predicates and reduces it appropriately for the specified PDF version.
@@ -588,51 +929,92 @@ public class TSVHandler {
      * - fn:IsRequired(fn:SinceVersion(1.5))
      * - fn:IsRequired(fn:BeforeVersion(1.3) || fn:IsPresent(SomeKey))
      * - fn:IsRequired(fn:SinceVersion(2.0) || fn:AnotherPredicate(...))
+     * The condition is partially evaluated (see PartialEvaluator), so it
+     * becomes TRUE, FALSE or whatever is left to be decided.
      *
      * @param reqd     the Required field from an Arlington TSV file
      * @param version the PDF version being targeted. 1.0 to 2.0 inclusive. 
      * 
      * @return the version-reduced equivalent appropriate for the version
      */
-    public String reduceRequiredForVersion(String reqd, double version) {
+    public String reduceRequiredForVersion(String reqd, PdfVersion version) {
+        return cache.required_cache.get(reqd, version);
+    }
+
+    private static String reduceRequired(String reqd, PdfVersion version, ExtensionProfile profile) {
         if (reqd.equals("TRUE") || reqd.equals("FALSE")) {
             return reqd;
         }
-        
-        assert (reqd.length() > 30) : "fnIsRequired() is too short!";
-        String r = reqd.substring(14, reqd.length()-1);
-        String tsv_ver;
-        
-        if (r.startsWith("fn:BeforeVersion(")) {
-            tsv_ver = r.substring(17, 17+3);
-            // Don't process complex expressions (e.g. with " && " or " || ") or fn:BeforeVersion with 2 parameters
-            if ((version < Double.parseDouble(tsv_ver)) && (reqd.indexOf(' ') == -1) && (reqd.indexOf(',') == -1)) {
-                return "TRUE";
+        return PartialEvaluator.reduceRequired(reqd, version, profile);
+    }
+
+    /**
+     * Processes an Arlington "DefaultValue" field. Only the extension
+     * predicates of a single predicate, such as
+     * "fn:Eval(fn:BeforeVersion(2.0,MD5) || fn:Extension(ISO_TS_32001,SHA256))",
+     * are folded and only when targeting specific extensions (see
+     * reduceAtomicForExtensions()). Otherwise it is returned as it is.
+     *
+     * @param str     the DefaultValue field from an Arlington TSV file
+     * @param version the PDF version being targeted. 1.0 to 2.0 inclusive.
+     *
+     * @return the reduced equivalent appropriate for the extensions
+     */
+    public String reduceDefaultValueForVersion(String str, PdfVersion version) {
+        if (!profile.isSpecialised() || !str.startsWith("fn:")) {
+            return str;
+        }
+        return reduceAtomicForExtensions(str, version, profile);
+    }
+
+    /**
+     * Processes an Arlington "SpecialCase" field, possibly complex ([];[];[]),
+     * and reduces any fn:Eval(...) and fn:IsMeaningful(...) predicates
+     * appropriately for the specified PDF version (see PartialEvaluator).
+     * A predicate that always holds is removed.
+     *
+     * @param str     the SpecialCase field from an Arlington TSV file
+     * @param version the PDF version being targeted. 1.0 to 2.0 inclusive.
+     *
+     * @return the version-reduced equivalent appropriate for the version
+     */
+    public String reduceSpecialCaseForVersion(String str, PdfVersion version) {
+        return cache.special_case_cache.get(str, version);
+    }
+
+    private static String reduceSpecialCase(String str, PdfVersion version, ExtensionProfile profile) {
+        if (!str.contains("fn:Eval(") && !str.contains("fn:IsMeaningful(") && !str.contains("Version(")) {
+            return str;
+        }
+        StringBuilder out_str = new StringBuilder(str.length());
+        boolean all_empty = true;
+        FieldScanner groups = new FieldScanner(str);
+        while (groups.nextGroup()) {
+            if (out_str.length() > 0) {
+                out_str.append(';');
             }
-        }                         
-        else if (r.startsWith("fn:IsPDFVersion(")) {
-            tsv_ver = r.substring(16, 16+3);
-            // Don't process complex expressions (e.g. with " && " or " || ") or fn:IsPDFVersion with 2 parameters
-            if ((Double.parseDouble(tsv_ver) == version) && (reqd.indexOf(' ') == -1) && (reqd.indexOf(',') == -1)) {
-                return "TRUE";
+            if (groups.isBracketed() && (str.startsWith("[fn:Eval(", groups.getStart()) || str.startsWith("[fn:IsMeaningful(", groups.getStart()))) {
+                String reduced = PartialEvaluator.reduceEval(str.substring(groups.getStart() + 1, groups.getEnd() - 1), version, profile);
+                reduced = reduced.equals("true") ? "" : reduced;
+                all_empty &= reduced.isEmpty();
+                out_str.append('[').append(reduced).append(']');
             }
-        }
-        else if (r.startsWith("fn:SinceVersion(")) {
-            tsv_ver = r.substring(16, 16+3);
-            if (version >= Double.parseDouble(tsv_ver)) {
-                // Don't process fn:SinceVersion with 2 parameters
-                if (((reqd.indexOf(' ') == -1) || (reqd.startsWith("fn:SinceVersion("+tsv_ver+") || "))) && (reqd.indexOf(',') == -1)) {
-                    return "TRUE";
-                }
+            else if (groups.isBracketed() && (str.startsWith("[fn:SinceVersion(", groups.getStart())
+                    || str.startsWith("[fn:BeforeVersion(", groups.getStart()) || str.startsWith("[fn:IsPDFVersion(", groups.getStart()))) {
+                String reduced = PartialEvaluator.reduceCondition(str.substring(groups.getStart() + 1, groups.getEnd() - 1), version, profile);
+                reduced = reduced.equals("true") ? "" : reduced;
+                all_empty &= reduced.isEmpty();
+                out_str.append('[').append(reduced).append(']');
             }
             else {
-                r = reqd.replace("fn:SinceVersion("+tsv_ver+") || ", "");
-                return r;
+                all_empty &= groups.contentEquals("[]");
+                out_str.append(str, groups.getStart(), groups.getEnd());
             }
         }
-        return reqd;
+        // Did we reduce everything to effectively nothing?
+        return all_empty ? "" : out_str.toString();
     }
-     
+
     /**
      * Processes an Arlington "SinceVersion" field that might contain version
      * predicates and reduces it appropriately for the specified PDF version.
@@ -647,76 +1029,47 @@ public class TSVHandler {
      * 
      * @return the lowest PDF version ("1.0", "1.1", etc)
      */
-    public double reduceSinceVersion(String sincever, double for_version, final StringBuilder reduced_sincever) {
-        Double arl_extn_ver;
-        
+    public double reduceSinceVersion(String sincever, PdfVersion for_version, final StringBuilder reduced_sincever) {
         assert(!sincever.isBlank()) : "never have an empty SinceVersion field";
-                
-        if (sincever.startsWith("fn:")) {
-            if (sincever.startsWith("fn:Eval")) {
-                // Predicate: fn:Eval(fn:Extension(AAA,x.y) || a.b) - extension AA since PDF x.y or part of core PDF since a.b
-                Pattern p = Pattern.compile("fn:Eval\\(fn:Extension\\(([A-Za-z0-9_]+)\\,([12]\\.[0-7])\\) \\|\\| ([12]\\.[0-7])\\)");
-                Matcher m = p.matcher(sincever);
-                // m.group(1) = extension name
-                // m.group(2) = extension PDF version
-                // m.group(3) = core PDF version
-                if (m.matches()) {
-                    arl_extn_ver = Double.valueOf(m.group(2));
-                    if (for_version < arl_extn_ver) {
-                        // want to exclude as TSV will not exist
-                        return 99;
-                    }
-                    else if (for_version == arl_extn_ver) {
-                        // reduce expression to "fn:Extension(AAA,x.y)"
-                        String s = "fn:Extension("+ m.group(1) + "," + m.group(2) + ")";
-                        reduced_sincever.append(s);
-                        return arl_extn_ver;
-                    }
-                    else {
-                        // after the extension-specific version so same as TSV input
-                        reduced_sincever.append(sincever);
-                        return arl_extn_ver;
-                    }
-                }
-                assert(false) : "Unexpected processing of fn:Eval(fn:Extension(AAA,x.y) || a.b)!";
-            }
-            else if (sincever.contains(",")) {
-                // Predicate: fn:Extension(AAA,x.y) - extension AAA but only since x.y
-                Pattern p = Pattern.compile("fn:Extension\\(([A-Za-z0-9_]+)\\,([12]\\.[0-7])\\)");
-                Matcher m = p.matcher(sincever);
-                // m.group(1) = extension name
-                // m.group(2) = extension PDF version
-                if (m.matches()) {
-                    arl_extn_ver = Double.valueOf(m.group(2));
-                    if (for_version < arl_extn_ver) {
-                        // want to drop as TSV will not exist
-                        return 99;
-                    }
-                    else if (for_version == arl_extn_ver) {
-                        // reduce to just "fn:Extension(AAA)"
-                        String s = "fn:Extension(" + m.group(1) + ")";
-                        reduced_sincever.append(s);
-                        return arl_extn_ver;
-                    }
-                    else { // for_version > arl_extn_ver
-                        // same as input
-                        reduced_sincever.append(sincever);
-                        return arl_extn_ver;
-                    }
-                }
-                assert(false) : "Unexpected processing of fn:Extension(AAA,x.y)";
-            }
-            else { // Predicate: fn:Extension(AAA) = keep for all versions of PDF
-                reduced_sincever.append(sincever);
-                return 1.0;
-            }
+
+        SinceVersion sv = SinceVersion.parse(sincever);
+        if (!sv.isPredicate()) {
+            // Just a normal PDF version
+            reduced_sincever.append(sincever);
+            return sv.isRecognised() ? sv.getCoreVersion() : Double.parseDouble(sincever);
         }
-        else { // Just a normal PDF version
+        if (!sv.isRecognised()) {
+            // Some other expression, e.g. with several extensions - same as TSV input
             reduced_sincever.append(sincever);
-            return Double.parseDouble(sincever);
+            PdfVersion first = VersionMask.ofSinceVersion(sincever).first();
+            return (first != null) ? first.getValue() : 99;
+        }
+
+        double arl_extn_ver = sv.getExtensionVersion();
+        if (Double.isNaN(arl_extn_ver)) {
+            // Predicate: fn:Extension(AAA) = keep for all versions of PDF
+            reduced_sincever.append(sincever);
+            return 1.0;
+        }
+        if (for_version.getValue() < arl_extn_ver) {
+            // want to exclude as TSV will not exist
+            return 99;
+        }
+        if (PdfVersion.fromValue(arl_extn_ver) == for_version) {
+            if (Double.isNaN(sv.getCoreVersion())) {
+                // Predicate: fn:Extension(AAA,x.y) - reduce to just "fn:Extension(AAA)"
+                reduced_sincever.append("fn:Extension(").append(sv.getExtension()).append(")");
+            }
+            else {
+                // Predicate: fn:Eval(fn:Extension(AAA,x.y) || a.b) - reduce to "fn:Extension(AAA,x.y)"
+                reduced_sincever.append("fn:Extension(").append(sv.getExtension()).append(",")
+                                .append(sincever, sincever.indexOf(',') + 1, sincever.indexOf(')')).append(")");
+            }
+            return arl_extn_ver;
         }
-        assert(false) : "Unexpected processing in reduceSinceVersion() method";
-        return 99;
+        // after the extension-specific version so same as TSV input
+        reduced_sincever.append(sincever);
+        return arl_extn_ver;
     }
     
 }
@@ -0,0 +1,109 @@
+/*
+ * TSVWriter.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Streams an Arlington TSV file to disk one row at a time. The file is
+ * only created when the first row is written, at which point the header
+ * row is written first. If every row of an object gets dropped then no
+ * file is created at all.
+ */
+public class TSVWriter implements TSVHandler.RowSink, Closeable {
+    /**
+     * The TSV file to create
+     */
+    private final Path path;
+
+    /**
+     * The TSV header row (without EOL), or null for no header
+     */
+    private final CharSequence header;
+
+    /**
+     * TSV delimiter - should be TAB
+     */
+    private final char delimiter;
+
+    /**
+     * Buffered output, null until the first row is written
+     */
+    private Writer out = null;
+
+    /**
+     * Number of data rows written so far
+     */
+    private int row_count = 0;
+
+    /**
+     * @param path  the TSV file to create (any existing file is replaced)
+     * @param header  the TSV header row, or null
+     * @param delimiter  should be '\t'
+     */
+    public TSVWriter(Path path, CharSequence header, char delimiter) {
+        this.path = path;
+        this.header = header;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Writes a data row, creating the file and writing the header row
+     * first if this is the first row.
+     *
+     * @param fields  the TSV fields of the row
+     * @throws IOException if the file cannot be created or written
+     */
+    @Override
+    public void writeRow(CharSequence... fields) throws IOException {
+        if (out == null) {
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            if (header != null) {
+                out.append(header).append('\n');
+            }
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.append(delimiter);
+            }
+            out.append(fields[i]);
+        }
+        out.append('\n');
+        row_count++;
+    }
+
+    /**
+     * @return the number of data rows written so far
+     */
+    public int getRowCount() {
+        return row_count;
+    }
+
+    /**
+     * Flushes and closes the file if it was ever created.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
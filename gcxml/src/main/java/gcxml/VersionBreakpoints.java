@@ -0,0 +1,94 @@
+/*
+ * VersionBreakpoints.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the PDF versions at which the reduction of an Arlington field can
+ * change. Reducing a field only ever compares the target PDF version with
+ * the version argument of fn:SinceVersion, fn:BeforeVersion, fn:Deprecated
+ * and fn:IsPDFVersion (&lt;, &gt;= or ==), so two PDF versions that
+ * compare the same way with every such argument ("breakpoint") always
+ * reduce a field to the same result. A field without any version predicate
+ * reduces the same for all PDF versions.
+ */
+public final class VersionBreakpoints {
+    private static final Pattern version_predicate =
+            Pattern.compile("fn:(SinceVersion|BeforeVersion|Deprecated|IsPDFVersion)\\((\\-?\\d+\\.\\d+)");
+
+    private VersionBreakpoints() {
+    }
+
+    /**
+     * @param field  an Arlington field, e.g. "[fn:SinceVersion(1.5,stream)]"
+     * @return the distinct version arguments of all version predicates, in ascending order
+     */
+    public static double[] find(String field) {
+        if (!field.contains("fn:")) {
+            return new double[0];
+        }
+        double[] breakpoints = new double[4];
+        int count = 0;
+        Matcher m = version_predicate.matcher(field);
+        while (m.find()) {
+            if (count == breakpoints.length) {
+                breakpoints = Arrays.copyOf(breakpoints, count * 2);
+            }
+            breakpoints[count++] = Double.parseDouble(m.group(2));
+        }
+        return Arrays.stream(breakpoints, 0, count).sorted().distinct().toArray();
+    }
+
+    /**
+     * Groups PDF versions that reduce a field to the same result.
+     *
+     * @param breakpoints  the breakpoints of a field, see find()
+     * @param versions  PDF versions, e.g. TSVHandler.pdf_version
+     * @return for each PDF version, the index of the first PDF version that reduces
+     *         the field the same way (its own index if it is the first)
+     */
+    public static int[] representatives(double[] breakpoints, double[] versions) {
+        int[] rep = new int[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            rep[i] = i;
+            for (int j = 0; j < i; j++) {
+                if (rep[j] == j && sameSide(versions[i], versions[j], breakpoints)) {
+                    rep[i] = j;
+                    break;
+                }
+            }
+        }
+        return rep;
+    }
+
+    /**
+     * @param v1  a PDF version
+     * @param v2  another PDF version
+     * @param breakpoints  the breakpoints of a field, see find()
+     * @return true if both PDF versions are below, equal to or above each
+     *         breakpoint, so they reduce the field to the same result
+     */
+    public static boolean sameSide(double v1, double v2, double[] breakpoints) {
+        for (double b : breakpoints) {
+            if (Integer.signum(Double.compare(v1, b)) != Integer.signum(Double.compare(v2, b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
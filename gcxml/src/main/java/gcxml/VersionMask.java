@@ -0,0 +1,219 @@
+/*
+ * VersionMask.java
+ * Copyright 2022 PDF Association, Inc. https://www.pdfa.org
+ *
+ * This material is based upon work supported by the Defense Advanced
+ * Research Projects Agency (DARPA) under Contract No. HR001119C0079.
+ * Any opinions, findings and conclusions or recommendations expressed
+ * in this material are those of the author(s) and do not necessarily
+ * reflect the views of the Defense Advanced Research Projects Agency
+ * (DARPA). Approved for public release.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ * Contributors: Peter Wyatt, PDF Association
+ */
+package gcxml;
+
+/**
+ * An immutable set of PDF versions, held as one bit per PdfVersion, e.g.
+ * the PDF versions in which a key or a type alternative exists. Testing a
+ * PDF version is a single bit test. There are only 512 possible masks,
+ * which are all created up front and shared.
+ */
+public final class VersionMask {
+    private static final int all_bits = (1 << PdfVersion.values().length) - 1;
+
+    private static final VersionMask[] masks = new VersionMask[all_bits + 1];
+    static {
+        for (int bits = 0; bits <= all_bits; bits++) {
+            masks[bits] = new VersionMask(bits);
+        }
+    }
+
+    /** every PDF version */
+    public static final VersionMask ALL = masks[all_bits];
+
+    /** no PDF version */
+    public static final VersionMask NONE = masks[0];
+
+    private final int bits;
+
+    private VersionMask(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * @param bits  PdfVersion bits (see PdfVersion.getBit())
+     * @return the mask
+     */
+    public static VersionMask of(int bits) {
+        return masks[bits & all_bits];
+    }
+
+    /**
+     * @param version  a PDF version number, which need not be one of the PDF versions
+     * @return all PDF versions from that version onwards
+     */
+    public static VersionMask since(double version) {
+        int bits = 0;
+        for (PdfVersion v : PdfVersion.values()) {
+            if (v.getValue() >= version) {
+                bits |= v.getBit();
+            }
+        }
+        return masks[bits];
+    }
+
+    /**
+     * @param version  a PDF version number, which need not be one of the PDF versions
+     * @return all PDF versions before that version
+     */
+    public static VersionMask before(double version) {
+        return since(version).not();
+    }
+
+    /**
+     * @param version  a PDF version number
+     * @return just that PDF version, or no PDF version if it is not one of them
+     */
+    public static VersionMask only(double version) {
+        PdfVersion v = PdfVersion.fromValue(version);
+        return (v != null) ? masks[v.getBit()] : NONE;
+    }
+
+    /**
+     * Works out the PDF versions in which a key exists from its Arlington
+     * "SinceVersion" field, which may be a predicate such as:
+     * - fn:Extension(XYZ) - all PDF versions
+     * - fn:Extension(XYZ,1.3) - since PDF 1.3
+     * - fn:Eval(fn:Extension(XYZ,1.5) || 2.0) - since PDF 1.5
+     * i.e. a key exists from the lowest PDF version in the predicate onwards.
+     *
+     * @param sincever  the SinceVersion field from an Arlington TSV file
+     * @return the PDF versions, or no PDF version if the field is not valid
+     */
+    public static VersionMask ofSinceVersion(String sincever) {
+        SinceVersion sv = SinceVersion.parse(sincever);
+        if (sv.isRecognised()) {
+            double lowest = sv.getLowestVersion();
+            return Double.isNaN(lowest) ? ALL : since(lowest);
+        }
+        if (!sincever.startsWith("fn:")) {
+            try {
+                return since(Double.parseDouble(sincever));
+            }
+            catch (NumberFormatException ex) {
+                return NONE;
+            }
+        }
+        try {
+            double lowest = lowestVersion(PredicateParser.parse(sincever));
+            return Double.isNaN(lowest) ? ALL : since(lowest);
+        }
+        catch (IllegalArgumentException ex) {
+            return NONE;
+        }
+    }
+
+    /**
+     * @return the lowest REAL number anywhere in the predicate, or NaN if there is none
+     */
+    private static double lowestVersion(PredicateNode node) {
+        if (node.isReal()) {
+            return Double.parseDouble(node.getText());
+        }
+        double lowest = Double.NaN;
+        for (PredicateNode child : node.getChildren()) {
+            double v = lowestVersion(child);
+            if (Double.isNaN(lowest) || (v < lowest)) {
+                lowest = v;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Works out the PDF versions in which an alternative of an Arlington
+     * Type field exists. Only fn:SinceVersion and fn:IsPDFVersion remove a
+     * type alternative.
+     *
+     * @param type  a single type alternative, e.g. "fn:SinceVersion(1.5,stream)"
+     * @return the PDF versions
+     */
+    public static VersionMask ofTypeAlternative(String type) {
+        if (!type.startsWith("fn:")) {
+            return ALL;
+        }
+        PredicateNode fn;
+        try {
+            fn = PredicateParser.parse(type);
+        }
+        catch (IllegalArgumentException ex) {
+            return ALL;
+        }
+        if ((fn.getKind() != PredicateNode.Kind.FUNCTION) || (fn.getChildren().size() != 2) || !fn.getChild(0).isReal()) {
+            return ALL;
+        }
+        double version = Double.parseDouble(fn.getChild(0).getText());
+        switch (fn.getName()) {
+            case "fn:SinceVersion":
+                return since(version);
+            case "fn:IsPDFVersion":
+                return only(version);
+            default:
+                return ALL;
+        }
+    }
+
+    /**
+     * @return PdfVersion bits (see PdfVersion.getBit())
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @param version  a PDF version
+     * @return true if the PDF version is in this set
+     */
+    public boolean contains(PdfVersion version) {
+        return ((bits >>> version.ordinal()) & 1) != 0;
+    }
+
+    public boolean isEmpty() {
+        return bits == 0;
+    }
+
+    public VersionMask and(VersionMask other) {
+        return masks[bits & other.bits];
+    }
+
+    public VersionMask or(VersionMask other) {
+        return masks[bits | other.bits];
+    }
+
+    public VersionMask not() {
+        return masks[~bits & all_bits];
+    }
+
+    /**
+     * @return the lowest PDF version in this set, or null if it is empty
+     */
+    public PdfVersion first() {
+        return (bits == 0) ? null : PdfVersion.values()[Integer.numberOfTrailingZeros(bits)];
+    }
+
+    /**
+     * @return the PDF versions, e.g. "[1.4, 1.5, 2.0]"
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (PdfVersion v : PdfVersion.values()) {
+            if (contains(v)) {
+                s.append((s.length() > 1) ? ", " : "").append(v);
+            }
+        }
+        return s.append(']').toString();
+    }
+}
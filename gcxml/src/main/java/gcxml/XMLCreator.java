@@ -14,35 +14,39 @@
  */
 package gcxml;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * A class to create XML equivalent versions of an Arlington TSV file set.
+ * The XML is streamed to disk one OBJECT at a time, so memory use does not
+ * depend on the size of the TSV file set. With more than 1 thread the OBJECT
+ * elements are created concurrently, and written in the same order (with the
+ * same object numbers) as when created serially.
  */
 public class XMLCreator {
-    /**
-     * Input folder where Arlington TSV files are.
-     * Defaults to './tsv/latest' on the assumption running in the Arlington
-     * main folder.
-     */
-    private String input_folder;
-
     /**
      * Output folder where XML files will be written.
      * Defaults to './xml/' on the assumption running in the Arlington
@@ -59,31 +63,72 @@ public class XMLCreator {
     /**
      * the PDF Version of XML being created
      */
-    private double pdf_ver = 0;
+    private PdfVersion pdf_ver = null;
+
+    /**
+     * The extensions being targeted
+     */
+    private final ExtensionProfile profile;
+
+    /**
+     * The in-memory Arlington TSV file set, with objects sorted
+     * alphabetically.
+     */
+    private ArlingtonModel model = null;
+
+    /**
+     * Number of OBJECT elements created concurrently (1 = serial)
+     */
+    private final int thread_count;
+
+    /**
+     * True to write gzip compressed XML files ("pdf_grammarX.Y.xml.gz")
+     */
+    private boolean gzip = false;
+
+    /**
+     * File name suffix of the index of an uncompressed XML file
+     * ("pdf_grammarX.Y.xml.idx"), see XMLQuery.getObject()
+     */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * The XML file being written: its XML writer, number of bytes written
+     * (only when uncompressed) and index of OBJECT elements (ditto)
+     */
+    private Writer out = null;
+    private CountingOutputStream out_bytes = null;
+    private StringBuilder index = null;
 
     /**
-     * Alphabetically sorted array of File objects that
-     * comprise an Arlington TSV file set.
+     * Validates the XML file being written against the XML schema, or null
+     * if there is no XML schema
      */
-    private File[] list_of_files = null;
+    private GrammarValidator validator = null;
 
     /**
-     * TSV delimiter - should be TAB
+     * Key names that are array indices (e.g. "0", "1*"), so the object is an array
      */
-    private char delimiter = '\t';
+    private static final Pattern array_index = Pattern.compile("^[0-9]+(\\*)?(?![a-zA-Z\\\\*])");
 
     /**
-     * Current Arlington TSV filename (object) being processed.
-     * Used for error and assertion messages during XML creation.
+     * Number of spaces per level of XML indentation
      */
-    private String current_entry;
+    private static final int INDENT = 3;
 
     /**
-     * XML document root object to which we will add XML elements
+     * XML declaration, written as it is because XMLStreamWriter has no way to
+     * write standalone="no"
      */
-    private DocumentBuilderFactory dom_factory = null;
-    private DocumentBuilder dom_builder = null;
-    private Document new_doc = null;
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n";
+
+    /**
+     * Placeholder for the object_number attribute of an OBJECT element,
+     * which is only known once the OBJECT elements before it are known
+     */
+    private static final String OBJECT_NUMBER = "###";
+
+    private XMLOutputFactory xml_factory = null;
 
     /**
      * Converts the Arlington PDF Model from a TSV file set to a single
@@ -93,518 +138,686 @@ public class XMLCreator {
      * @param delimiter    should be '\t'
      */
     public XMLCreator(File[] list_of_files, char delimiter) throws Exception {
-        this.output_folder = System.getProperty("user.dir") + "/xml/";
-        this.input_folder  = System.getProperty("user.dir") + "/tsv/latest/";
+        this(ArlingtonModel.load(System.getProperty("user.dir") + "/tsv/latest/", list_of_files, delimiter));
+    }
 
-        // sort Arlington TSV files by name alphabetically
-        ArrayList<File> arr_file = new ArrayList<>();
-        for (File file : list_of_files) {
-            arr_file.add(file);
-        }
-        arr_file.sort((p1, p2) -> p1.compareTo(p2));
+    /**
+     * Converts an already loaded Arlington PDF Model to a single
+     * monolithic XML representation.
+     *
+     * @param model  the Arlington TSV file set
+     */
+    public XMLCreator(ArlingtonModel model) throws Exception {
+        this(model, ExtensionProfile.ALL);
+    }
 
-        this.list_of_files = new File[arr_file.size()];
-        for (int i = 0; i < arr_file.size(); i++) {
-            this.list_of_files[i] = arr_file.get(i);
-        }
+    /**
+     * Converts an already loaded Arlington PDF Model to a single
+     * monolithic XML representation specialised for a set of extensions.
+     *
+     * @param model  the Arlington TSV file set
+     * @param profile  the extensions being targeted
+     */
+    public XMLCreator(ArlingtonModel model, ExtensionProfile profile) throws Exception {
+        this(model, 1, profile);
+    }
 
-        this.delimiter = delimiter;
-        this.current_entry = "";
-        
-        dom_factory = DocumentBuilderFactory.newInstance();
-        dom_builder = dom_factory.newDocumentBuilder();
-        new_doc = dom_builder.newDocument();        
+    /**
+     * Converts an already loaded Arlington PDF Model to a single
+     * monolithic XML representation specialised for a set of extensions,
+     * creating the OBJECT elements concurrently.
+     *
+     * @param model  the Arlington TSV file set
+     * @param thread_count  number of worker threads (1 = serial)
+     * @param profile  the extensions being targeted
+     */
+    public XMLCreator(ArlingtonModel model, int thread_count, ExtensionProfile profile) throws Exception {
+        this.profile = profile;
+        this.thread_count = Math.max(thread_count, 1);
+        this.output_folder = System.getProperty("user.dir") + "/xml/";
+        this.model = model;
+
+        xml_factory = XMLOutputFactory.newInstance();
+    }
+
+    /**
+     * @param gzip  true to write gzip compressed XML files named
+     *              "pdf_grammarX.Y.xml.gz" instead of "pdf_grammarX.Y.xml"
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
     }
 
     /**
      * Creates a specific XML file for a specific PDF version based on
-     * an Arlington TSV file set.
+     * an Arlington TSV file set. An uncompressed XML file comes with an
+     * index of the byte range of each OBJECT element in it, so that a
+     * single OBJECT can be read without parsing the whole XML file. The
+     * index is a TSV file with the XML file name, size and modification
+     * time (in ms) in the first row, then a row per OBJECT with its id,
+     * first byte and end byte. The XML is validated against the XML schema
+     * as it is written. Schema errors are reported and make this method
+     * return false, but the XML file is still written so that it can be
+     * inspected. May be called repeatedly for different
+     * PDF versions, but an XMLCreator object must not be shared between
+     * threads - use one object per concurrently created PDF version.
      *
      * @param pdf_version  the PDF version (as a string)
+     *
+     * @return true if the XML file was created (or was already identical)
+     *         and is valid against the XML schema
      */
-    public void createXML(String pdf_version) {
-        output_folder += "pdf_grammar" + pdf_version + ".xml" ;
-        tsv = new TSVHandler();
-        pdf_ver = Float.parseFloat(pdf_version);
+    public boolean createXML(String pdf_version) {
+        String output_file = output_folder + "pdf_grammar" + pdf_version + (gzip ? ".xml.gz" : ".xml");
+        tsv = new TSVHandler(model, 1, profile);
+        pdf_ver = PdfVersion.fromString(pdf_version);
+        if (pdf_ver == null) {
+            System.err.println("Error: there is no PDF version " + pdf_version);
+            return false;
+        }
 
+        // Write to a temporary file, so that an existing file is only touched if something changed
+        Path path = Paths.get(output_file);
+        Path new_path = Paths.get(output_file + ".tmp");
         int object_count = 0;
+        index = gzip ? null : new StringBuilder();
+        int error_count = 0;
         try {
-            // Root element
-            Element root_elem = new_doc.createElement("PDF");
-            root_elem.setAttribute("pdf_version", pdf_version);
-            root_elem.setAttribute("grammar_version", Gcxml.Gcxml_version);
-            root_elem.setAttribute("iso_ref", "ISO 32000-2:2020");
-            new_doc.appendChild(root_elem);
-
-            // Read each Arlington TSV file
-            for (File file : list_of_files) {
-                if (file.isFile() && file.canRead() && file.exists()) {
-                    BufferedReader tsv_reader;
-                    String temp = input_folder;
-                    String file_name = file.getName().substring(0, file.getName().length()-4); // no file extension ".tsv"
-                    temp += file_name + ".tsv";
-                    tsv_reader = new BufferedReader(new FileReader(temp));
-                    System.out.println("Processing " + file_name + " for PDF " + pdf_version);
-
-                    // remove TSV header row
-                    String current_line = tsv_reader.readLine();
-
-                    Element object_elem = new_doc.createElement("OBJECT");
-                    object_elem.setAttribute("id", file_name);
-                    object_elem.setAttribute("object_number", String.format("%03d",object_count));
-
-                    boolean object_is_array = file_name.contains("Array") || file_name.contains("ColorSpace");
-
-                    while ((current_line = tsv_reader.readLine()) != null) {
-                        String[] column_values = current_line.split(Character.toString(delimiter), -1);
-                        assert (column_values.length == 12) : "Less than 12 TSV columns!";
-
-                        // set instance varaibles for reporting purposes
-                        current_entry = column_values[0];
-                        float current_entry_version = reduceSinceVersion(column_values[2]);
-
-                        if (column_values[0].matches("^[0-9]+(\\*)?(?![a-zA-Z\\\\*])")) {
-                            object_is_array = true;
-                        }
+            validator = GrammarValidator.forFile(path.getFileName().toString());
+            try (OutputStream file = Files.newOutputStream(new_path)) {
+                out_bytes = new CountingOutputStream(gzip ? new GZIPOutputStream(file, 65536) : file);
+                out = new BufferedWriter(new OutputStreamWriter(out_bytes, StandardCharsets.UTF_8));
+                out.write(XML_DECLARATION);
+                XMLStreamWriter root = xml_factory.createXMLStreamWriter(out);
+
+                // Root element
+                root.writeStartElement("PDF");
+                root.writeAttribute("grammar_version", Gcxml.Gcxml_version);
+                root.writeAttribute("iso_ref", "ISO 32000-2:2020");
+                root.writeAttribute("pdf_version", pdf_version);
+                if (validator != null) {
+                    validator.startRoot("PDF", "grammar_version", Gcxml.Gcxml_version, "iso_ref", "ISO 32000-2:2020", "pdf_version", pdf_version);
+                }
 
-                        // <ENTRY> node: represents single key/array element in the object
-                        Element entry_elem = new_doc.createElement("ENTRY");
-                        if (current_entry_version <= pdf_ver) {
-                            System.out.println("\tKept key: " + current_entry);
-
-                            TSVHandler.TypeListModifier types_reduced = tsv.reduceTypesForVersion(column_values[1], pdf_ver);
-                            column_values[1] = types_reduced.getReducedTypes();
-                            if (types_reduced.somethingReduced()) {
-                                // At least one type got reduced so need to
-                                // reduce various other TSV fields accordingly
-                                // BEFORE they themselves are reduced
-                                column_values[5]  = types_reduced.reduceCorresponding(column_values[5]);  // IndirectReference
-                                column_values[7]  = types_reduced.reduceCorresponding(column_values[7]);  // DefaultValue
-                                column_values[9]  = types_reduced.reduceCorresponding(column_values[9]);  // SpecialCase
-                            }
-                            column_values[4]  = tsv.reduceRequiredForVersion(column_values[4], pdf_ver); // Required
-                            column_values[8]  = tsv.reduceComplexForVersion(column_values[8], pdf_ver); // PossibleValues
-                            column_values[10] = tsv.reduceComplexForVersion(column_values[10], pdf_ver); // Links
-
-                            // <NAME> node: name of the key
-                            Element name_elem = nodeName(column_values[0]);
-                            assert (name_elem != null) : "Node element was null!";
-                            Element introduced_elem = nodeIntroduced(column_values[2]);
-                            assert (introduced_elem != null) : "Introduced element was null!";
-                            Element deprecated_elem = nodeDeprecated(column_values[3]);
-                            Element required_elem = nodeRequired(column_values[4]);
-                            assert (required_elem != null) : "Required element was null!";
-                            Element indirect_reference_elem = nodeIndirectReference(column_values[1], column_values[5]);
-                            assert (indirect_reference_elem != null) : "IndirectReference element was null!";
-                            Element inheritable = nodeInheritable(column_values[6]);
-                            assert (inheritable != null) : "Inheritable element was null!";
-                            Element special_case_elem = nodeSpecialCase(column_values[9]);
-
-                            // <VALUE> node: possible values that can be used for the entry
-                            // - colValues[1]: type
-                            // - colValues[10]: links
-                            // - colValues[6], colValues[7], colValues[8]: other values (optional)
-                            Element value_elem = nodeValues(column_values[1], column_values[7], column_values[8], column_values[10]);
-
-                            //append elements to entry. Some are optional.
-                            entry_elem.appendChild(name_elem);
-                            if (value_elem != null)
-                                entry_elem.appendChild(value_elem);
-                            entry_elem.appendChild(required_elem);
-                            entry_elem.appendChild(indirect_reference_elem);
-                            entry_elem.appendChild(inheritable);
-                            entry_elem.appendChild(introduced_elem);
-                            if (deprecated_elem != null)
-                                entry_elem.appendChild(deprecated_elem);
-                            if (special_case_elem != null)
-                                entry_elem.appendChild(special_case_elem);
-
-                            // append elements to object
-                            object_elem.appendChild(entry_elem);
+                // Process each Arlington TSV file, in order
+                List<ArlingtonModel.TSVObject> objs = model.getObjects();
+                if (thread_count == 1) {
+                    for (ArlingtonModel.TSVObject obj : objs) {
+                        if (writeObject(root, new ObjectWriter().createObject(obj), object_count)) {
+                            object_count++;
                         }
-                        else {
-                            System.out.println("\tDropped key: " + current_entry);
+                    }
+                }
+                else {
+                    ForkJoinPool pool = new ForkJoinPool(thread_count);
+                    try {
+                        ArrayList<Future<ObjectWriter>> objects = new ArrayList<>(objs.size());
+                        for (ArlingtonModel.TSVObject obj : objs) {
+                            objects.add(pool.submit(() -> new ObjectWriter().createObject(obj)));
+                        }
+                        for (Future<ObjectWriter> f : objects) {
+                            if (writeObject(root, f.get(), object_count)) {
+                                object_count++;
+                            }
                         }
-                    } // while row in TSV
-
-                    // append object to root - if there was anyting
-                    if (object_elem.hasChildNodes()) {
-                        if (object_is_array)
-                            object_elem.setAttribute("isArray", "true");
-                        System.out.println("\tAdded to XML for PDF " + pdf_version);
-                        object_count++;
-                        root_elem.appendChild(object_elem);
                     }
-                    tsv_reader.close();
+                    finally {
+                        pool.shutdownNow();
+                    }
+                }
+
+                root.writeCharacters("\n");
+                root.writeEndElement();
+                root.writeCharacters("\n");
+                root.close();
+                out.close();
+                if (validator != null) {
+                    error_count = validator.endRoot("PDF");
                 }
             }
 
-            // Save the XML document
-            TransformerFactory tran_factory = TransformerFactory.newInstance();
-            Transformer transformer = tran_factory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "3");
-            Source src = new DOMSource(new_doc);
-            Result result = new StreamResult(new File(output_folder));
-            transformer.transform(src, result);
-            System.out.println("Wrote XML for PDF " + pdf_version + " with " + object_count + " objects to " + output_folder);
+            // Do not touch the existing file if nothing changed
+            if (Files.isRegularFile(path) && sameContent(path, new_path)) {
+                Files.delete(new_path);
+                System.out.println("XML for PDF " + pdf_version + " with " + object_count + " objects is unchanged in " + output_file);
+            }
+            else {
+                Files.move(new_path, path, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Wrote XML for PDF " + pdf_version + " with " + object_count + " objects to " + output_file);
+            }
+            if (index != null) {
+                // Only once the XML file is in place, as the index records its size and modification time
+                writeIndex(Paths.get(output_file + INDEX_SUFFIX), path.getFileName() + "\t" + Files.size(path) + "\t"
+                        + Files.getLastModifiedTime(path).toMillis() + "\n" + index);
+            }
+
+            // Only keep one of the uncompressed and compressed XML files, so that queries see each PDF version once
+            String other_file = output_folder + "pdf_grammar" + pdf_version + (gzip ? ".xml" : ".xml.gz");
+            if (Files.deleteIfExists(Paths.get(other_file))) {
+                System.out.println("Deleted " + other_file);
+            }
+            if (gzip) {
+                Files.deleteIfExists(Paths.get(other_file + INDEX_SUFFIX));
+            }
+            if (error_count > 0) {
+                System.err.println("Error: XML for PDF " + pdf_version + " has " + error_count + " XML schema error(s)");
+                return false;
+            }
+            return true;
         }
         catch (Exception exp) {
             System.err.println(exp.toString());
+            try {
+                Files.deleteIfExists(new_path);
+            }
+            catch (IOException ex) {
+                System.err.println(ex.toString());
+            }
         }
+        finally {
+            out = null;
+            out_bytes = null;
+            index = null;
+            validator = null;
+        }
+        return false;
     }
 
     /**
-     * Creates an XML "NAME" element representing the key name or array index.
+     * Appends an OBJECT element, if there is one, to the root element,
+     * validates it and prints the console output of its creation.
      *
-     * @param col_value  the key name or array index from TSV "Key" field
-     * (column 1, never blank)
+     * @param root  XML writer of the root element, writing to the XML file
+     * @param obj  the created OBJECT element
+     * @param object_number  the number of the OBJECT element
      *
-     * @return a valid Element (always)
+     * @return true if there was an OBJECT element
      */
-    private Element nodeName(String col_value) {
-        Element temp_elem = new_doc.createElement("NAME");
-        temp_elem.appendChild(new_doc.createTextNode(col_value));
-        if (col_value.contains("*"))
-            temp_elem.setAttribute("isWildcard", "true");
-        return temp_elem;
+    private boolean writeObject(XMLStreamWriter root, ObjectWriter obj, int object_number) throws XMLStreamException, IOException {
+        System.out.print(obj.log);
+        if (obj.xml_text == null) {
+            return false;
+        }
+        root.writeCharacters("\n" + " ".repeat(INDENT));
+        root.flush();
+        long start = out_bytes.getCount();
+        int at = obj.xml_text.indexOf(OBJECT_NUMBER);
+        String xml_text = obj.xml_text.substring(0, at) + String.format("%03d", object_number)
+                + obj.xml_text.substring(at + OBJECT_NUMBER.length());
+        out.write(xml_text);
+        if (validator != null) {
+            validator.validateObject(obj.id, xml_text);
+        }
+        if (index != null) {
+            out.flush();
+            index.append(obj.id).append('\t').append(start).append('\t').append(out_bytes.getCount()).append('\n');
+        }
+        return true;
     }
 
     /**
-     * Creates an XML "INTRODUCED" element representing the PDF version when
-     * the current key/array element was introduced.
-     *
-     * @param col_value  the TSV "SinceVersion" field (column 3, never blank)
+     * Writes the index of an XML file, unless it is already up-to-date.
      *
-     * @return a valid Element (always)
+     * @param path  the index file
+     * @param content  the index
      */
-    private Element nodeIntroduced(String col_value) {
-        Element temp_elem = new_doc.createElement("INTRODUCED");
-        temp_elem.appendChild(new_doc.createTextNode(col_value));
-        return temp_elem;
+    private static void writeIndex(Path path, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (!Files.isRegularFile(path) || !Arrays.equals(Files.readAllBytes(path), bytes)) {
+            Files.write(path, bytes);
+        }
     }
 
     /**
-     * Creates an XML "DEPRECATED" element representing the PDF version when
-     * the current key/array element was deprecated.
-     *
-     * @param col_value  the TSV "DeprecatedIn" field (column 4). Can be empty.
-     *
-     * @return a valid Element or null
+     * Counts the bytes written to an output stream
      */
-    private Element nodeDeprecated(String col_value) {
-        Element temp_elem = null;
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
 
-        if (!col_value.isBlank()) {
-            temp_elem = new_doc.createElement("DEPRECATED");
-            temp_elem.appendChild(new_doc.createTextNode(col_value));
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
-        return temp_elem;
-    }
 
+        /**
+         * @return number of bytes written so far
+         */
+        private long getCount() {
+            return count;
+        }
+    }
 
     /**
-     * Creates an XML "REQUIRED" element representing the required/optional-ness
-     * of the current key/array index. Converted to XML "true"/"false" with
-     * predicates remaining unchanged.
-     *
-     * @param col_value  the TSV "Required" field which can be TRUE, FALSE or a
-     * predicate. Column 5.
-     *
-     * @return a valid Element (always)
+     * @return true if two files have the same content
      */
-    private Element nodeRequired(String col_value) {
-        Element temp_elem = new_doc.createElement("REQUIRED");
-        if (!col_value.startsWith("fn:")) {
-            col_value = col_value.toLowerCase();
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        if (Files.size(a) != Files.size(b)) {
+            return false;
+        }
+        byte[] buf_a = new byte[65536];
+        byte[] buf_b = new byte[65536];
+        try (InputStream in_a = Files.newInputStream(a); InputStream in_b = Files.newInputStream(b)) {
+            int len;
+            while ((len = in_a.readNBytes(buf_a, 0, buf_a.length)) > 0) {
+                if ((in_b.readNBytes(buf_b, 0, len) != len) || !Arrays.equals(buf_a, 0, len, buf_b, 0, len)) {
+                    return false;
+                }
+            }
         }
-        temp_elem.appendChild(new_doc.createTextNode(col_value));
-        return temp_elem;
+        return true;
     }
 
     /**
-     * Creates an XML "INDIRECT_REFERENCE" element representing whether the
-     * current key/array index is required to be direct, indirect or either.
-     *
-     * @param types   the TSV "Types" string which may be multi-typed
-     * @param col_value  the TSV "IndirectReference" field which can be complex,
-     *  FALSE, TRUE or a predicate. Column 6.
-     *
-     * @return a valid Element with children (always)
+     * Creates the "OBJECT" element for a single Arlington TSV file as XML
+     * text, with a placeholder for its object number. Each object is created
+     * by a new ObjectWriter, so objects can be created concurrently.
      */
-    private Element nodeIndirectReference(String types, String col_value) {
-        Element temp_elem = new_doc.createElement("INDIRECT_REFERENCE");
-        Element value;
+    private final class ObjectWriter {
+        /**
+         * The OBJECT element, or null if none of the keys exist in the PDF version
+         */
+        private String xml_text = null;
+
+        /**
+         * The id of the OBJECT element (the object name)
+         */
+        private String id = null;
+
+        /**
+         * Console output, printed when the OBJECT element is written
+         */
+        private final StringBuilder log = new StringBuilder();
+
+        /**
+         * The OBJECT element being written, and the depth of its current element
+         */
+        private XMLStreamWriter xml = null;
+        private int depth = 1;
+
+        /**
+         * True once the "VALUES" element of the current ENTRY has been started
+         */
+        private boolean values_started = false;
+
+        /**
+         * Current Arlington key being processed.
+         * Used for error and assertion messages during XML creation.
+         */
+        private String current_entry = "";
+
+        /**
+         * Creates the "OBJECT" element for a single Arlington TSV file, if any of
+         * its keys exist in the PDF version.
+         *
+         * @param obj  an object from the latest TSV file set
+         *
+         * @return this
+         */
+        private ObjectWriter createObject(ArlingtonModel.TSVObject obj) throws XMLStreamException {
+            String file_name = obj.getName();
+            id = file_name;
+            log.append("Processing " + file_name + " for PDF " + pdf_ver).append('\n');
+
+            // The attributes of the OBJECT element depend on all of its rows, so work them out first
+            boolean object_is_array = file_name.contains("Array") || file_name.contains("ColorSpace");
+            boolean[] kept = new boolean[obj.getRowCount()];
+            boolean has_entries = false;
+            for (int r = 0; r < obj.getRowCount(); r++) {
+                if (array_index.matcher(obj.getKey(r)).matches()) {
+                    object_is_array = true;
+                }
+                VersionMask exists = profile.isSpecialised() ? profile.getVersionMask(obj.getSinceVersion(r)) : obj.getVersionMask(r);
+                kept[r] = exists.contains(pdf_ver);
+                has_entries |= kept[r];
+            }
 
-        String type_arr[] = types.split(";");
-        String ir_arr[];
+            StringWriter text = new StringWriter();
+            if (has_entries) {
+                synchronized (xml_factory) {
+                    xml = xml_factory.createXMLStreamWriter(text);
+                }
+                xml.writeStartElement("OBJECT");
+                depth++;
+                xml.writeAttribute("id", file_name);
+                if (object_is_array)
+                    xml.writeAttribute("isArray", "true");
+                xml.writeAttribute("object_number", OBJECT_NUMBER);
+            }
+            for (int r = 0; r < obj.getRowCount(); r++) {
+                String[] column_values = obj.getRow(r);
+                assert (column_values.length == 12) : "Less than 12 TSV columns!";
+
+                // set instance varaibles for reporting purposes
+                current_entry = column_values[0];
+
+                // <ENTRY> node: represents single key/array element in the object
+                if (kept[r]) {
+                    log.append("\tKept key: " + current_entry).append('\n');
+
+                    column_values[2] = profile.reduceSinceVersion(column_values[2]); // SinceVersion
+
+                    TSVHandler.TypeListModifier types_reduced = tsv.reduceTypesForVersion(column_values[1], pdf_ver);
+                    column_values[1] = types_reduced.getReducedTypes();
+                    if (types_reduced.somethingReduced()) {
+                        // At least one type got reduced so need to
+                        // reduce various other TSV fields accordingly
+                        // BEFORE they themselves are reduced
+                        column_values[5]  = types_reduced.reduceCorresponding(column_values[5]);  // IndirectReference
+                        column_values[7]  = types_reduced.reduceCorresponding(column_values[7]);  // DefaultValue
+                        column_values[9]  = types_reduced.reduceCorresponding(column_values[9]);  // SpecialCase
+                    }
+                    column_values[7]  = tsv.reduceDefaultValueForVersion(column_values[7], pdf_ver); // DefaultValue
+                    column_values[4]  = tsv.reduceRequiredForVersion(column_values[4], pdf_ver); // Required
+                    column_values[9]  = tsv.reduceSpecialCaseForVersion(column_values[9], pdf_ver); // SpecialCase
+                    column_values[8]  = tsv.reduceComplexForVersion(column_values[8], pdf_ver); // PossibleValues
+                    column_values[10] = tsv.reduceComplexForVersion(column_values[10], pdf_ver); // Links
+
+                    startElement("ENTRY");
+                    // <NAME> node: name of the key
+                    nodeName(column_values[0]);
+                    // <VALUE> node: possible values that can be used for the entry
+                    // - colValues[1]: type
+                    // - colValues[10]: links
+                    // - colValues[6], colValues[7], colValues[8]: other values (optional)
+                    nodeValues(column_values[1], column_values[7], column_values[8], column_values[10]);
+                    nodeRequired(column_values[4]);
+                    nodeIndirectReference(column_values[1], column_values[5]);
+                    nodeInheritable(column_values[6]);
+                    nodeIntroduced(column_values[2]);
+                    // optional elements
+                    nodeDeprecated(column_values[3]);
+                    nodeSpecialCase(column_values[9]);
+                    endElement();
+                }
+                else {
+                    log.append("\tDropped key: " + current_entry).append('\n');
+                }
+            } // for row in TSV
 
-        if (col_value.contains(";")) {
-            ir_arr= col_value.split(";");
-        }
-        else {
-            ir_arr = new String[type_arr.length];
-            for (int i = 0; i < ir_arr.length; i++)
-                ir_arr[i] = col_value;
+            if (has_entries) {
+                endElement();
+                xml.close();
+                xml_text = text.toString();
+                log.append("\tAdded to XML for PDF " + pdf_ver).append('\n');
+            }
+            return this;
         }
-        assert (ir_arr.length == type_arr.length) : "Mismatched Type and IndirectRef arrays!";
 
-        for (int i = 0; i < type_arr.length; i++) {
-            if (ir_arr[i].charAt(0) == '[') {
-                // strip [ and ]
-                ir_arr[i] = ir_arr[i].substring(1, ir_arr[i].length()-1);
+        /**
+         * Starts an element on a new, indented line. Its attributes can then be
+         * written, in alphabetical order.
+         *
+         * @param name  element name
+         */
+        private void startElement(String name) throws XMLStreamException {
+            if (depth > 0) {
+                xml.writeCharacters("\n" + " ".repeat(depth * INDENT));
             }
+            xml.writeStartElement(name);
+            depth++;
+        }
 
-            if ((ir_arr[i].equals("TRUE")) || (ir_arr[i].equals("FALSE"))) {
-                value = createNodeValue(type_arr[i], ir_arr[i].toLowerCase());
+        /**
+         * Ends an element started with startElement(), which must have child
+         * elements, on a new line.
+         */
+        private void endElement() throws XMLStreamException {
+            depth--;
+            xml.writeCharacters("\n" + " ".repeat(depth * INDENT));
+            xml.writeEndElement();
+        }
+
+        /**
+         * Writes an element with only text on a new, indented line.
+         *
+         * @param name  element name
+         * @param text  the text
+         */
+        private void textElement(String name, String text) throws XMLStreamException {
+            xml.writeCharacters("\n" + " ".repeat(depth * INDENT));
+            if (text.isEmpty()) {
+                xml.writeEmptyElement(name);
             }
             else {
-                value = createNodeValue(type_arr[i], ir_arr[i]);
+                xml.writeStartElement(name);
+                xml.writeCharacters(text);
+                xml.writeEndElement();
             }
-            temp_elem.appendChild(value);
         }
-        return temp_elem;
-    }
 
+        /**
+         * Writes an XML "NAME" element representing the key name or array index.
+         *
+         * @param col_value  the key name or array index from TSV "Key" field
+         * (column 1, never blank)
+         */
+        private void nodeName(String col_value) throws XMLStreamException {
+            xml.writeCharacters("\n" + " ".repeat(depth * INDENT));
+            xml.writeStartElement("NAME");
+            if (col_value.contains("*"))
+                xml.writeAttribute("isWildcard", "true");
+            xml.writeCharacters(col_value);
+            xml.writeEndElement();
+        }
 
-    /**
-     * Creates an XML "INHERITABLE" element .
-     *
-     * @param col_value  the TSV "Inheritable" field which can only be TRUE or
-     * FALSE. Column 7. Converted to XML "true"/"false".
-     *
-     * @return null on error, or a valid Element
-     */
-    private Element nodeInheritable(String col_value) {
-        Element temp_elem = new_doc.createElement("INHERITABLE");
-        temp_elem.appendChild(new_doc.createTextNode(col_value.toLowerCase()));
-        return temp_elem;
-    }
+        /**
+         * Writes an XML "INTRODUCED" element representing the PDF version when
+         * the current key/array element was introduced.
+         *
+         * @param col_value  the TSV "SinceVersion" field (column 3, never blank)
+         */
+        private void nodeIntroduced(String col_value) throws XMLStreamException {
+            textElement("INTRODUCED", col_value);
+        }
 
-    /**
-     * Creates an XML "DEFAULT_VALUE" element .
-     *
-     * @param col_value  the TSV "DefaultValue" field. Column 8. Can be almost
-     * anything.
-     *
-     * @return a valid Element (always)
-     */
-    private Element nodeDefaultValue(String col_value) {
-        Element temp_elem = new_doc.createElement("DEFAULT_VALUE");
-        temp_elem.appendChild(new_doc.createTextNode(col_value));
-        return temp_elem;
-    }
+        /**
+         * Writes an XML "DEPRECATED" element representing the PDF version when
+         * the current key/array element was deprecated.
+         *
+         * @param col_value  the TSV "DeprecatedIn" field (column 4). Can be empty,
+         * in which case nothing is written.
+         */
+        private void nodeDeprecated(String col_value) throws XMLStreamException {
+            if (!col_value.isBlank()) {
+                textElement("DEPRECATED", col_value);
+            }
+        }
 
 
-    /**
-     * Creates an XML "SPECIAL_CASE" element .
-     *
-     * @param col_value  the TSV "SpecialCase" field which can be anything.
-     * Column 10.
-     *
-     * @return a valid Element or null
-     */
-    private Element nodeSpecialCase(String col_value) {
-        Element temp_elem = null;
-        if (!col_value.isBlank()) {
-            temp_elem = new_doc.createElement("SPECIAL_CASE");
-            col_value = col_value.substring(1, col_value.length()-1); // strip [ and ]
-            temp_elem.appendChild(new_doc.createTextNode(col_value));
+        /**
+         * Writes an XML "REQUIRED" element representing the required/optional-ness
+         * of the current key/array index. Converted to XML "true"/"false" with
+         * predicates remaining unchanged.
+         *
+         * @param col_value  the TSV "Required" field which can be TRUE, FALSE or a
+         * predicate. Column 5.
+         */
+        private void nodeRequired(String col_value) throws XMLStreamException {
+            if (!col_value.startsWith("fn:")) {
+                col_value = col_value.toLowerCase();
+            }
+            textElement("REQUIRED", col_value);
         }
-        return temp_elem;
-    }
 
+        /**
+         * Writes an XML "INDIRECT_REFERENCE" element representing whether the
+         * current key/array index is required to be direct, indirect or either.
+         *
+         * @param types   the TSV "Types" string which may be multi-typed
+         * @param col_value  the TSV "IndirectReference" field which can be complex,
+         *  FALSE, TRUE or a predicate. Column 6.
+         */
+        private void nodeIndirectReference(String types, String col_value) throws XMLStreamException {
+            startElement("INDIRECT_REFERENCE");
+
+            // IndirectReference is either complex (one element per type) or applies to all types
+            boolean is_complex = (col_value.indexOf(';') >= 0);
+            assert (!is_complex || (FieldScanner.countGroups(col_value) == FieldScanner.countGroups(types))) : "Mismatched Type and IndirectRef arrays!";
+
+            FieldScanner type_groups = new FieldScanner(types);
+            FieldScanner ir_groups = new FieldScanner(col_value);
+            while (type_groups.nextGroup()) {
+                int ir_start = 0;
+                int ir_end = col_value.length();
+                if (is_complex && ir_groups.nextGroup()) {
+                    ir_start = ir_groups.getStart();
+                    ir_end = ir_groups.getEnd();
+                }
+                if (col_value.charAt(ir_start) == '[') {
+                    // strip [ and ]
+                    ir_start++;
+                    ir_end--;
+                }
+                String ir = col_value.substring(ir_start, ir_end);
 
-    /**
-     * Converts "DefaultValue" and "PossibleValues" into XML for a set of Types
-     * and Links.
-     *
-     * @param type an Arlington Type field, possibly complex
-     * @param default_value  Arlington "DefaultValue" field, possibly complex
-     * @param possible_values Arlington "PossibleValues" field, possibly complex
-     * @param links Arlington Links corresponding
-     *
-     * @return a valid XML Element
-     */
-    private Element nodeValues(String type, String default_value, String possible_values, String links) {
-        Element values_elem = new_doc.createElement("VALUES");
-
-        String[] types = type.split(";");
-        String[] arr_links = links.split(";");
-        assert (types.length == arr_links.length) : "Types and Links are different lengths!";
-        assert (!type.contains("fn:")) : "Types contained a predicate!";
-
-        String[] pos_values = possible_values.split(";");
-        String[] dft_values = default_value.split(";");
-        assert (pos_values.length == arr_links.length) : "PossibleValues and Links are not the same length!";
-        assert (dft_values.length == arr_links.length) : "DefaultValue and Links are not the same length!";
-
-        for (int i = 0; i < types.length; i++) {
-            Element value;
-            String t = types[i];
-
-            // Is it an Arlington type needing a Link?
-            if ("array".equals(t) ||
-                "dictionary".equals(t) ||
-                "stream".equals(t) ||
-                ("number-tree".equals(t) && !links.isBlank()) ||
-                ("name-tree".equals(t) && !links.isBlank())) {
-                // Strip [ and ]
-                assert (arr_links[i].charAt(0) == '[') : "No opening [ on Links";
-                assert (arr_links[i].charAt(arr_links[i].length()-1) == ']') : "No closing ] on Links";
-                String a = arr_links[i].substring(1, arr_links[i].length() - 1);
-
-                // COMMAs are ambiguous: separators or inside predicates?
-                while (!a.isBlank()) {
-                    if (a.startsWith("fn:")) {
-                        // get up to closing bracket )
-                        int j = tsv.indexOfOuterCloseBracket(a);
-                        assert j != -1: "No ')' for predicate!";
-
-                        // Get encapsulating predicate incl. close bracket
-                        String s = a.substring(0, j + 1);
-                        value = createNodeValue(t, s);
-                        values_elem.appendChild(value);
-
-                        if (j + 2 < a.length()) {
-                            a = a.substring(j + 2, a.length());
-                        }
-                        else {
-                            a = "";
-                        }
+                if ((ir.equals("TRUE")) || (ir.equals("FALSE"))) {
+                    createNodeValue(type_groups.token(), ir.toLowerCase(), false);
+                }
+                else {
+                    createNodeValue(type_groups.token(), ir, false);
+                }
+            }
+            endElement();
+        }
 
-                        // remove COMMA if not at end of string
-                        if ((!a.isBlank()) && (a.charAt(0) == ',')) {
-                            a = a.substring(1, a.length());
-                        }
+
+        /**
+         * Writes an XML "INHERITABLE" element .
+         *
+         * @param col_value  the TSV "Inheritable" field which can only be TRUE or
+         * FALSE. Column 7. Converted to XML "true"/"false".
+         */
+        private void nodeInheritable(String col_value) throws XMLStreamException {
+            textElement("INHERITABLE", col_value.toLowerCase());
+        }
+
+
+        /**
+         * Writes an XML "SPECIAL_CASE" element .
+         *
+         * @param col_value  the TSV "SpecialCase" field which can be anything.
+         * Column 10. Nothing is written if it is empty.
+         */
+        private void nodeSpecialCase(String col_value) throws XMLStreamException {
+            if (!col_value.isBlank()) {
+                col_value = col_value.substring(1, col_value.length()-1); // strip [ and ]
+                textElement("SPECIAL_CASE", col_value);
+            }
+        }
+
+
+        /**
+         * Writes "DefaultValue" and "PossibleValues" as XML for a set of Types
+         * and Links. The "VALUES" element is only written if it has any VALUE.
+         *
+         * @param type an Arlington Type field, possibly complex
+         * @param default_value  Arlington "DefaultValue" field, possibly complex
+         * @param possible_values Arlington "PossibleValues" field, possibly complex
+         * @param links Arlington Links corresponding
+         */
+        private void nodeValues(String type, String default_value, String possible_values, String links) throws XMLStreamException {
+            values_started = false;
+
+            assert (FieldScanner.countGroups(type) == FieldScanner.countGroups(links)) : "Types and Links are different lengths!";
+            assert (!type.contains("fn:")) : "Types contained a predicate!";
+            assert (FieldScanner.countGroups(possible_values) == FieldScanner.countGroups(links)) : "PossibleValues and Links are not the same length!";
+            assert (FieldScanner.countGroups(default_value) == FieldScanner.countGroups(links)) : "DefaultValue and Links are not the same length!";
+
+            // the i-th elements of Types, Links, PossibleValues and DefaultValue go together
+            FieldScanner types = new FieldScanner(type);
+            FieldScanner arr_links = new FieldScanner(links);
+            FieldScanner pos_values = new FieldScanner(possible_values);
+            FieldScanner dft_values = new FieldScanner(default_value);
+            FieldScanner items = new FieldScanner(links);
+            while (types.nextGroup()) {
+                String t = types.token();
+                boolean has_link = arr_links.nextGroup();
+                boolean has_pos_value = pos_values.nextGroup() && (pos_values.getEnd() > pos_values.getStart());
+                boolean has_dft_value = dft_values.nextGroup() && (dft_values.getEnd() > dft_values.getStart());
+
+                // Is it an Arlington type needing a Link?
+                if ("array".equals(t) ||
+                    "dictionary".equals(t) ||
+                    "stream".equals(t) ||
+                    ("number-tree".equals(t) && !links.isBlank()) ||
+                    ("name-tree".equals(t) && !links.isBlank())) {
+                    assert has_link && arr_links.isBracketed() : "No [ and ] around Links";
+                    // Strip [ and ]. COMMAs are ambiguous: separators or inside predicates?
+                    items.reset(links, arr_links.getStart() + 1, arr_links.getEnd() - 1);
+                    while (items.nextItem()) {
+                        assert (items.getEnd() > items.getStart()) : "Adding empty value!";
+                        startValues();
+                        createNodeValue(t, items.token(), false);
                     }
-                    else {
-                        String s = a;
-                        if (a.indexOf(',') > 0) {
-                            s = a.substring(0, a.indexOf(','));
-                            a = a.substring(a.indexOf(',') + 1, a.length());
-                        }
-                        else {
-                            a = "";
-                        }
-                        assert (!s.isBlank()) : "Adding empty value!";
-                        value = createNodeValue(t, s);
-                        values_elem.appendChild(value);
+                } // if Linkable-type
+
+                // any PossibleValues?
+                if (has_pos_value) {
+                    assert pos_values.isBracketed() : "No [ and ] around PossibleValue";
+                    // Strip [ and ]. COMMAs are ambiguous: separators or inside predicates?
+                    items.reset(possible_values, pos_values.getStart() + 1, pos_values.getEnd() - 1);
+                    while (items.nextItem()) {
+                        startValues();
+                        createNodeValue(t, items.token(), false);
                     }
-                } // while
-            } // if Linkable-type
-
-            // any PossibleValues?
-            if ((i < pos_values.length) && (!pos_values[i].isBlank())) {
-                // Strip [ and ]
-                assert (pos_values[i].charAt(0) == '[') : "No opening [ on PossibleValue";
-                assert (pos_values[i].charAt(pos_values[i].length()-1) == ']') : "No closing ] on PossibleValue";
-                String a = pos_values[i].substring(1, pos_values[i].length() - 1);
-
-                // COMMAs are ambiguous: separators or inside predicates?
-                while (!a.isBlank()) {
-                    if (a.startsWith("fn:")) {
-                        // get up to closing bracket )
-                        int j = tsv.indexOfOuterCloseBracket(a);
-                        assert j != -1: "No ')' for predicate!";
-
-                        // Get encapsulating predicate incl. close bracket
-                        String s = a.substring(0, j + 1);
-                        value = createNodeValue(t, s);
-                        values_elem.appendChild(value);
-
-                        if (j + 2 < a.length()) {
-                            a = a.substring(j + 2, a.length());
-                        }
-                        else {
-                            a = "";
-                        }
+                } // if PossibleValues
 
-                        // remove COMMA if not at end of string
-                        if ((!a.isBlank()) && (a.charAt(0) == ',')) {
-                            a = a.substring(1, a.length());
-                        }
-                    }
-                    else {
-                        String s = a;
-                        if (a.indexOf(',') >= 0) {
-                            s = a.substring(0, a.indexOf(','));
-                            a = a.substring(a.indexOf(',') + 1, a.length());
-                        }
-                        else {
-                            a = "";
-                        }
-                        value = createNodeValue(t, s);
-                        values_elem.appendChild(value);                        }
-                } // while
-            } // if PossibleValues
-
-            // any DefaultValue?
-            if ((i < dft_values.length) && (!dft_values[i].isBlank())) {
-                value = createNodeValue(t, dft_values[i]);
-                value.setAttribute("isDefaultValue", "true");
-                values_elem.appendChild(value);
-            }
-        } // for-each type
+                // any DefaultValue?
+                if (has_dft_value) {
+                    startValues();
+                    createNodeValue(t, dft_values.token(), true);
+                }
+            } // for-each type
 
-        if (values_elem.hasChildNodes())
-            return values_elem;
-        else
-            return null;
-    }
+            if (values_started)
+                endElement();
+        }
 
-   /**
-     * Creates a single "VALUE" element for a Type t with value
-     *
-     * @param t      an Arlington type (just one)
-     * @param value  the value for the VALUE node
-     * @return       a new XML VALUE element
-     */
-    private Element createNodeValue(String t, String value) {
-        Element valueElem = new_doc.createElement("VALUE");
-        assert (!t.contains(";")) : "VALUE node type had a SEMI-COLON!";
-        valueElem.setAttribute("type", t);
-        valueElem.appendChild(new_doc.createTextNode(value));
-        return valueElem;
-    }
-    
-    /**
-     * Processes an Arlington "SinceVersion" field that might contain version
-     * predicates and reduces it appropriately for the specified PDF version.
-     * Examples include:
-     * - fn:Extension(XYZ)
-     * - fn:Extension(XYZ,1.3)
-     * - fn:Eval(fn:Extension(XYZ,1.5) || 2.0)
-     *
-     * @param sincever  the SinceVersion field from an Arlington TSV file
+        /**
+         * Starts the "VALUES" element of the current ENTRY when its first VALUE
+         * is about to be written.
+         */
+        private void startValues() throws XMLStreamException {
+            if (!values_started) {
+                startElement("VALUES");
+                values_started = true;
+            }
+        }
 
-     * @return the lowest PDF version ("1.0", "1.1", etc)
-     */
-    public float reduceSinceVersion(String sincever) {
-        if (sincever.startsWith("fn:")) {
-            if (sincever.matches("fn:Extension\\([A-Za-z0-9_]+\\)")) {
-                // Predicate: fn:Extension(AAA) - all versions of PDF
-                return (float) 1.0;
+       /**
+         * Writes a single "VALUE" element for a Type t with value
+         *
+         * @param t      an Arlington type (just one)
+         * @param value  the value for the VALUE node
+         * @param is_default  true if the value is the DefaultValue
+         */
+        private void createNodeValue(String t, String value, boolean is_default) throws XMLStreamException {
+            assert (!t.contains(";")) : "VALUE node type had a SEMI-COLON!";
+            xml.writeCharacters("\n" + " ".repeat(depth * INDENT));
+            if (value.isEmpty()) {
+                xml.writeEmptyElement("VALUE");
             }
             else {
-                // Predicate: fn:Extension(AAA,x.y) - only since x.y
-                Pattern p1 = Pattern.compile("fn:Extension\\([A-Za-z0-9_]+\\,([12]\\.[0-7])\\)");
-                Matcher m1 = p1.matcher(sincever);
-                if (m1.matches()) {
-                    return Float.parseFloat(m1.group(1));
-                }
-                Pattern p2 = Pattern.compile("fn:Eval\\(fn:Extension\\([A-Za-z0-9_]+\\,([12]\\.[0-7])\\) \\|\\| ([12]\\.[0-7])\\)");
-                Matcher m2 = p2.matcher(sincever);
-                if (m2.matches()) {
-                    return Float.parseFloat(m2.group(1));
-                }
+                xml.writeStartElement("VALUE");
+            }
+            if (is_default)
+                xml.writeAttribute("isDefaultValue", "true");
+            xml.writeAttribute("type", t);
+            if (!value.isEmpty()) {
+                xml.writeCharacters(value);
+                xml.writeEndElement();
             }
         }
-        else {
-            // Just a normal PDF version
-            return Float.parseFloat(sincever);
-        }
-        return (float) 1.0; // Assume every PDF version
     }
 }
@@ -14,8 +14,19 @@
  */
 package gcxml;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,6 +37,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
@@ -56,8 +68,16 @@ public class XMLQuery {
      */
     private DocumentBuilder domBuilder = null;
 
+    /**
+     * Indexes of XML files (see XMLCreator.createXML()) read so far, by XML
+     * file name, size and modification time (the first row of the index).
+     * Each index is the byte range of each OBJECT element, by id.
+     */
+    private final Map<String, Map<String, long[]>> indexes = new HashMap<>();
+
     /**
      * List of all files in "inputFolder" - file extension is NOT checked.
+     * Files may be gzip compressed (see parse()).
      */
     private File[] files = null;
 
@@ -69,10 +89,15 @@ public class XMLQuery {
 
         File folder = new File(inputFolder);
         this.files = folder.listFiles();
-        // sort files by name alphabetically, remove folders
+        // sort files by name alphabetically, remove folders and indexes, and
+        // compressed XML files that also exist uncompressed (one file per PDF version)
         ArrayList<File> arr_file = new ArrayList<>();
         for (File file : files) {
-            if (file.isFile()) {
+            String name = file.getName();
+            if (name.endsWith(".xml.gz") && new File(folder, name.substring(0, name.length() - 3)).isFile()) {
+                continue;
+            }
+            if (file.isFile() && !name.endsWith(XMLCreator.INDEX_SUFFIX)) {
                 arr_file.add(file);
             }
         }
@@ -92,20 +117,116 @@ public class XMLQuery {
         }
     }
 
+    /**
+     * Parses an XML grammar file, which may be gzip compressed (see "-gzip").
+     * Compressed files are recognised by their content rather than their
+     * name, and are decompressed while they are parsed.
+     *
+     * @param file  an XML file
+     * @return the parsed XML document
+     */
+    private Document parse(File file) throws SAXException, IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 65536)) {
+            in.mark(2);
+            boolean gzipped = (in.read() == 0x1f) && (in.read() == 0x8b);
+            in.reset();
+            return domBuilder.parse(gzipped ? new GZIPInputStream(in, 65536) : in, file.toURI().toString());
+        }
+    }
+
+    /**
+     * Reads a single OBJECT element from the XML file for a PDF version. If
+     * the XML file has an up-to-date index then only that OBJECT element is
+     * read and parsed, otherwise the whole XML file is parsed.
+     *
+     * @param pdfVersion  PDF version as a string e.g. "1.7"
+     * @param id  the object name, e.g. "Catalog"
+     * @return the OBJECT element, or null if there is no such object
+     *
+     * @throws SAXException if the XML is not valid
+     * @throws IOException if the XML file cannot be read
+     */
+    public Element getObject(String pdfVersion, String id) throws SAXException, IOException {
+        File file = new File(inputFolder, "pdf_grammar" + pdfVersion + ".xml");
+        Map<String, long[]> index = loadIndex(file);
+        if (index != null) {
+            long[] range = index.get(id);
+            if (range == null) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (range[1] - range[0])];
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, range[0] + buf.position()) < 0) {
+                        throw new IOException("Index of " + file + " does not match the file");
+                    }
+                }
+            }
+            return domBuilder.parse(new ByteArrayInputStream(bytes), file.toURI().toString()).getDocumentElement();
+        }
+
+        if (!file.isFile()) {
+            file = new File(inputFolder, "pdf_grammar" + pdfVersion + ".xml.gz");
+        }
+        NodeList object_nodes = parse(file).getDocumentElement().getElementsByTagName("OBJECT");
+        for (int i = 0; i < object_nodes.getLength(); i++) {
+            Element object_elem = (Element) object_nodes.item(i);
+            if (object_elem.getAttribute("id").equals(id)) {
+                return object_elem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the index of an XML file, if there is one that is up-to-date
+     * (its XML file has the size and modification time given in the index).
+     *
+     * @param file  an uncompressed XML file
+     * @return the byte range of each OBJECT element, by id, or null
+     */
+    private Map<String, long[]> loadIndex(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        String stamp = file.getName() + "\t" + file.length() + "\t" + file.lastModified();
+        Map<String, long[]> index = indexes.get(stamp);
+        if (index != null) {
+            return index;
+        }
+        Path path = Paths.get(file.getPath() + XMLCreator.INDEX_SUFFIX);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(stamp)) {
+            return null;
+        }
+        index = new HashMap<>();
+        for (int i = 1; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split("\t");
+            index.put(fields[0], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+        }
+        indexes.put(stamp, index);
+        return index;
+    }
+
     /**
      * Show keys that were introduced in the specified PDF version for each XML
-     * file in the input folder.
+     * file in the input folder. A key was introduced in the lowest PDF
+     * version of its VersionMask (see VersionMask.ofSinceVersion()).
      * For command line option "-sin &lt;version&gt;".
      *
      * @param pdfVersion  PDF version as a string e.g. "1.7"
      */
     public void SinceVersion(String pdfVersion){
+        PdfVersion version = PdfVersion.fromString(pdfVersion);
         // loop through *.xml grammar files found in "/xml" directory
         for (File file : files) {
             if (file.isFile() && file.canRead() && file.exists()) {
                 try {
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     System.out.println("Working on " + file.getName());
@@ -128,7 +249,7 @@ public class XMLQuery {
                                 Element entry_elem = (Element) entry;
                                 String nodeName = entry_elem.getElementsByTagName("NAME").item(0).getTextContent();
                                 String nodeSinceVersion = entry_elem.getElementsByTagName("INTRODUCED").item(0).getTextContent();
-                                if (pdfVersion.equals(nodeSinceVersion)) {
+                                if ((version != null) && (VersionMask.ofSinceVersion(nodeSinceVersion).first() == version)) {
                                     System.out.println("\t/" + nodeName);
                                     keyCount++;
                                 }
@@ -157,8 +278,7 @@ public class XMLQuery {
         for (File file : files) {
             if (file.isFile() && file.canRead() && file.exists()) {
                 try {
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     System.out.println("Working on " + file.getName());
@@ -196,17 +316,19 @@ public class XMLQuery {
 
     /**
      * Show deprecated keys that match a specified PDF version for each XML
-     * file in the input folder. For command line option "-dep &lt;version&gt;"
+     * file in the input folder. A key was deprecated in the lowest PDF
+     * version of the VersionMask of its DEPRECATED element.
+     * For command line option "-dep &lt;version&gt;"
      *
      * @param pdfVersion  PDF version as a string e.g. "1.7"
      */
     public void DeprecatedIn(String pdfVersion){
+        PdfVersion version = PdfVersion.fromString(pdfVersion);
         // loop through *.xml grammar files found in "/xml" directory
         for (File file : files) {
             if (file.isFile() && file.canRead() && file.exists()) {
                 try {
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     System.out.println("Working on " + file.getName());
@@ -231,7 +353,7 @@ public class XMLQuery {
                                 NodeList deprecated = entry_elem.getElementsByTagName("DEPRECATED");
                                 if ((deprecated != null) && (deprecated.getLength() > 0)) {
                                     String nodeDeprecated = deprecated.item(0).getTextContent();
-                                    if (pdfVersion.equals(nodeDeprecated)) {
+                                    if ((version != null) && (VersionMask.ofSinceVersion(nodeDeprecated).first() == version)) {
                                         System.out.println("\t/" + nodeName);
                                         keyCount++;
                                     }
@@ -262,8 +384,7 @@ public class XMLQuery {
         for (File file : files) {
             if (file.isFile() && file.canRead() && file.exists()) {
                 try{
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     System.out.println("Working on " + file.getName());
@@ -314,10 +435,9 @@ public class XMLQuery {
         for (File file : files) {
             if (file.isFile() && file.canRead() && file.exists()) {
                 try {
-                    String inputFile = inputFolder + file.getName();
                     System.out.println("XML file: " + file.getName());
 
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
                     ArrayList<String> arrListTypes;
 
@@ -357,6 +477,33 @@ public class XMLQuery {
     }
 
 
+    /**
+     * Show the keys (or array elements) of a single object in a PDF version,
+     * e.g. "what keys does Catalog have in PDF 1.4". Only reads that object
+     * (see getObject()).
+     * For command line option "-keys &lt;object&gt; &lt;version&gt;".
+     *
+     * @param id  the object name, e.g. "Catalog"
+     * @param pdfVersion  PDF version as a string e.g. "1.7"
+     */
+    public void ObjectKeys(String id, String pdfVersion) {
+        try {
+            Element object_elem = getObject(pdfVersion, id);
+            if (object_elem == null) {
+                System.out.println("There is no object " + id + " in PDF " + pdfVersion);
+                return;
+            }
+            NodeList names = object_elem.getElementsByTagName("NAME");
+            System.out.println("Keys of object " + id + " in PDF " + pdfVersion + ":");
+            for (int i = 0; i < names.getLength(); i++) {
+                System.out.println("\t/" + names.item(i).getTextContent());
+            }
+        }
+        catch (SAXException | IOException ex) {
+            Logger.getLogger(XMLQuery.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
     /**
      * Reports the occurrence count for keys. That is how often the same key
      * appears across multiple PDF objects. Command line option "-kc". Does
@@ -405,8 +552,7 @@ public class XMLQuery {
             if (file.isFile() && file.canRead() && file.exists()) {
                 System.out.println("XML file: " + file.getName());
                 try {
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     XPath xPath =  XPathFactory.newInstance().newXPath();
@@ -492,8 +638,7 @@ public class XMLQuery {
     {
         ArrayList<String> allKeys = new ArrayList<>();
 
-        String inputFile = inputFolder + file_name;
-        Document doc = domBuilder.parse(inputFile);
+        Document doc = parse(new File(inputFolder, file_name));
         doc.getDocumentElement().normalize();
 
         String expression = "/PDF/OBJECT/ENTRY/NAME/text()";
@@ -522,8 +667,7 @@ public class XMLQuery {
     private String getDictByKey(String key, String file_name) {
         String dicts = "";
         try {
-            String inputFile = inputFolder + file_name;
-            Document doc = domBuilder.parse(inputFile);
+            Document doc = parse(new File(inputFolder, file_name));
             doc.getDocumentElement().normalize();
 
             XPath xPath =  XPathFactory.newInstance().newXPath();
@@ -608,8 +752,7 @@ public class XMLQuery {
                 boolean first_key = true;
                 List<String> listDicts = new ArrayList<>();
                 try {
-                    String inputFile = inputFolder + file.getName();
-                    Document doc = domBuilder.parse(inputFile);
+                    Document doc = parse(file);
                     doc.getDocumentElement().normalize();
 
                     for (String key : given_keys){